@@ -1,60 +1,787 @@
 package com.kiligz.batch;
 
-import java.util.ArrayList;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 /**
  * 线程安全的批处理器
+ * <pre>
+ * 1.元素达到batchSize时，由添加元素的线程进行批处理
+ *   元素直接写入缓冲区，无锁占位，满时原子切换到备用缓冲区，批次即缓冲区的定长视图，无需复制
+ *   批次处理完成后缓冲区作为备用缓冲区复用，同步时两个缓冲区交替使用，不再分配，
+ *   异步时处理中的批次超过1个才另外分配缓冲区
+ *   缓冲区在第一个元素写入时才分配，空闲的批处理器（如{@link KeyedBatchProcessor}不活跃的key）不占用缓冲区
+ *   batchConsumer、deadLetter收到的list不支持add、remove，且只在调用期间有效，需要保留、修改时自行复制，如new ArrayList<>(list)
+ * 2.设置linger后，元素最多等待linger时间就会被批处理，流量小时也不会一直积压
+ * 3.设置async后，批次交给flusher线程处理，添加元素的线程不受批处理速度影响，
+ *   处理中的批次数达到maxInFlight时才阻塞添加元素的线程
+ * 4.批处理失败时按retry指数退避重试，设置splitOnFailure后仍失败的批次对半拆分，隔离出有问题的元素，
+ *   退避在定时线程上等待，到期后在flusher（同步时为共享线程池）上重试，不阻塞添加元素的线程，
+ *   重试次数由拆分出的子批次共享，总重试时间有上限，最终失败的元素交给deadLetter；
+ *   未设置deadLetter时，批次在添加元素的线程上完成则抛出异常，否则记录日志，多个子批次的异常合并为suppressed
+ *   batchConsumer抛出Error时不重试、不拆分，直接最终失败，交给deadLetter时包装为RuntimeException
+ * 5.{@link #metrics}统计批次大小、处理耗时、失败、重试次数
+ * </pre>
  *
  * @author ivan.zhu
  * @since 2024/7/10
  */
-public class BatchProcessor<T> {
-    private final LinkedBlockingQueue<T> queue;
+@Slf4j
+public class BatchProcessor<T> implements AutoCloseable {
+    /**
+     * 所有批处理器共享的linger、重试退避定时线程，只负责把到期的批次交给flusher，不执行batchConsumer
+     */
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "batch-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 同步批处理器linger到期、重试时处理批次的共享线程池，按需创建守护线程，空闲60s回收
+     */
+    private static final ExecutorService SHARED_FLUSHER = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger num = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, "batch-shared-flusher-" + num.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private static final int MAX_SPINS = Runtime.getRuntime().availableProcessors() * 10;
+
+    /**
+     * 最大重试退避时间 30s
+     */
+    private static final long MAX_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final int batchSize;
 
     private final Consumer<List<T>> batchConsumer;
 
-    private final AtomicInteger processedSize = new AtomicInteger();
+    private final AtomicLong processedSize = new AtomicLong();
+
+    /**
+     * 当前写入的缓冲区
+     */
+    private final AtomicReference<Buffer<T>> current;
+
+    /**
+     * 已处理完成、可复用的备用缓冲区
+     */
+    private final AtomicReference<Buffer<T>> spare = new AtomicReference<>();
+
+    /**
+     * 元素的最大等待时间，0表示不限制
+     */
+    private long lingerNanos;
+
+    /**
+     * 是否已有待执行的linger定时任务
+     */
+    private final AtomicBoolean lingerScheduled = new AtomicBoolean();
+
+    /**
+     * 异步批处理的线程池，为null时由添加元素的线程批处理
+     */
+    private Executor flusher;
+
+    /**
+     * flusher是否由本批处理器创建，关闭时一并关闭
+     */
+    private boolean ownFlusher;
+
+    /**
+     * 异步处理中的批次数许可，许可数即maxInFlight
+     */
+    private Semaphore inFlight;
+
+    /**
+     * 已分发、未完成的批次数，包括退避重试中的批次
+     */
+    private final AtomicInteger active = new AtomicInteger();
+
+    /**
+     * active降为0时通知post
+     */
+    private final Object idle = new Object();
+
+    /**
+     * 失败重试次数及首次重试的退避时间，之后每次翻倍
+     */
+    private int retryTimes;
+    private long backoffNanos;
+
+    /**
+     * 重试后仍失败时是否拆分批次
+     */
+    private boolean splitOnFailure;
+
+    /**
+     * 最终失败的元素及异常的处理，为null时同步抛出异常，异步记录日志
+     */
+    private BiConsumer<List<T>, Exception> deadLetter;
+
+    private final Metrics metrics = new Metrics();
 
     public BatchProcessor(int batchSize, Consumer<List<T>> batchConsumer) {
-        this.queue = new LinkedBlockingQueue<>(batchSize);
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        this.batchSize = batchSize;
         this.batchConsumer = batchConsumer;
+        this.current = new AtomicReference<>(new Buffer<>(batchSize));
+    }
+
+    /**
+     * 设置元素的最大等待时间，超过时批处理未满的批次，类似kafka producer的linger.ms
+     * 到期的批次异步时交给flusher，同步时交给共享的linger线程池，定时线程不会被慢的batchConsumer阻塞
+     */
+    public BatchProcessor<T> linger(long linger, TimeUnit unit) {
+        this.lingerNanos = unit.toNanos(linger);
+        return this;
+    }
+
+    /**
+     * 异步批处理，由flusherCount个守护线程处理批次，最多maxInFlight个批次在处理中
+     */
+    public BatchProcessor<T> async(int flusherCount, int maxInFlight) {
+        async(newFlusher(flusherCount), maxInFlight);
+        this.ownFlusher = true;
+        return this;
+    }
+
+    /**
+     * 异步批处理，由指定线程池（如Concurrents的线程池）处理批次，最多maxInFlight个批次在处理中
+     */
+    public BatchProcessor<T> async(Executor executor, int maxInFlight) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+        }
+        this.flusher = executor;
+        this.ownFlusher = false;
+        this.inFlight = new Semaphore(maxInFlight);
+        return this;
+    }
+
+    /**
+     * 批处理失败时重试times次，第n次重试前等待 backoff * 2^(n-1)，最多30s
+     * 拆分出的子批次共享这times次重试，一个批次总共最多重试times次
+     */
+    public BatchProcessor<T> retry(int times, long backoff, TimeUnit unit) {
+        if (times < 0 || backoff < 0) {
+            throw new IllegalArgumentException("times and backoff must not be negative");
+        }
+        this.retryTimes = times;
+        this.backoffNanos = unit.toNanos(backoff);
+        return this;
+    }
+
+    /**
+     * 重试后仍失败的批次对半拆分，分别处理，直到单个元素，隔离出有问题的元素
+     */
+    public BatchProcessor<T> splitOnFailure() {
+        this.splitOnFailure = true;
+        return this;
+    }
+
+    /**
+     * 最终失败的元素及最后一次的异常交给deadLetter，不再抛出
+     */
+    public BatchProcessor<T> deadLetter(BiConsumer<List<T>, Exception> deadLetter) {
+        this.deadLetter = deadLetter;
+        return this;
     }
 
     /**
-     * 添加元素，当到batchSize时，由调用该方法的线程进行批处理
+     * 添加元素，当到batchSize时，由调用该方法的线程进行批处理（异步时交给flusher）
      */
     public void add(T t) {
-        if (!queue.offer(t)) {
-            List<T> list = null;
-            synchronized (this) {
-                if (!queue.offer(t)) {
-                    list = new ArrayList<>(queue);
-                    queue.clear();
+        while (true) {
+            Buffer<T> buffer = current.get();
+            int index = buffer.reserved.getAndIncrement();
+            if (index < batchSize) {
+                buffer.items()[index] = t;
+                buffer.written.incrementAndGet();
+                // 占到最后一个位置的线程负责封存
+                if (index == batchSize - 1) {
+                    dispatch(seal(buffer, batchSize));
+                } else {
+                    scheduleLinger();
                 }
+                return;
             }
-            if (list != null) {
-                batchConsumer.accept(list);
-                processedSize.getAndAdd(list.size());
+            // 已满，等待封存的线程切换缓冲区（复用的缓冲区重置占位数）后重试
+            for (int spins = 0; current.get() == buffer && buffer.reserved.get() >= batchSize; spins++) {
+                backoff(spins);
             }
         }
     }
 
     /**
-     * 处理未达到batchSize的元素
+     * 处理未达到batchSize的元素，并等待所有批次（包括异步、退避重试中的批次）处理完成
      */
     public void post() {
-        batchConsumer.accept(new ArrayList<>(queue));
-        processedSize.getAndAdd(queue.size());
+        flush();
+        boolean interrupted = false;
+        synchronized (idle) {
+            while (active.get() > 0) {
+                try {
+                    idle.wait();
+                } catch (InterruptedException e) {
+                    // 等待完成后恢复中断标记
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 处理剩余元素，并关闭自己创建的flusher
+     */
+    @Override
+    public void close() {
+        post();
+        if (ownFlusher) {
+            ((ExecutorService) flusher).shutdown();
+        }
+    }
+
+    /**
+     * 立即处理当前未满的批次，不等待异步批次完成
+     */
+    public void flush() {
+        Buffer<T> buffer = sealPartial();
+        if (buffer != null) {
+            dispatch(buffer);
+        }
+    }
+
+    /**
+     * 当前批次中未处理的元素数
+     */
+    public int pendingSize() {
+        return Math.min(current.get().reserved.get(), batchSize);
     }
 
     /**
-     * 获取处理过的总量
+     * 没有未处理的元素，也没有处理中的批次
+     */
+    boolean isIdle() {
+        return active.get() == 0 && pendingSize() == 0;
+    }
+
+    /**
+     * 获取处理成功的总量
      */
     public long processedSize() {
         return processedSize.get();
     }
+
+    /**
+     * 获取批处理统计
+     */
+    public Metrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * 没有待执行的linger定时任务时，新建一个，到时批处理当时所有元素
+     */
+    private void scheduleLinger() {
+        if (lingerNanos > 0 && !lingerScheduled.get() && lingerScheduled.compareAndSet(false, true)) {
+            TIMER.schedule(this::lingerExpired, lingerNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * linger到期，在定时线程上只把封存、处理交给flusher，不等待许可
+     * 异步时处理中的批次已达上限，说明批次在持续处理，下一个linger再试
+     */
+    private void lingerExpired() {
+        lingerScheduled.set(false);
+        if (pendingSize() == 0) {
+            return;
+        }
+        Semaphore permits = inFlight;
+        if (permits != null && !permits.tryAcquire()) {
+            scheduleLinger();
+            return;
+        }
+        active.incrementAndGet();
+        try {
+            executor().execute(() -> {
+                Buffer<T> buffer = null;
+                try {
+                    buffer = sealPartial();
+                } finally {
+                    if (buffer == null) {
+                        release(permits);
+                    }
+                }
+                if (buffer != null) {
+                    process(buffer, permits, false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            release(permits);
+            log.error("linger batch rejected. ", e);
+        }
+    }
+
+    /**
+     * 封存当前未满的批次，没有需要处理的元素时返回null
+     */
+    private Buffer<T> sealPartial() {
+        Buffer<T> buffer = current.get();
+        // 把占位数推到batchSize，之后的add不会再写入该缓冲区
+        int size = buffer.reserved.getAndUpdate(r -> r == 0 || r >= batchSize ? r : batchSize);
+        // 空缓冲区无需处理，已满的由占到最后一个位置的线程封存
+        if (size == 0 || size >= batchSize) {
+            return null;
+        }
+        return seal(buffer, size);
+    }
+
+    /**
+     * 切换到备用缓冲区（没有时新建），等待已占位的元素写完后返回封存的缓冲区，每个缓冲区每轮只会被封存一次
+     */
+    private Buffer<T> seal(Buffer<T> buffer, int size) {
+        Buffer<T> next = spare.getAndSet(null);
+        if (next == null) {
+            current.set(new Buffer<>(batchSize));
+        } else {
+            // 先切换再重置占位数，持有旧引用的线程在切换前只会占到无效位置
+            current.set(next);
+            next.reserved.set(0);
+        }
+        for (int spins = 0; buffer.written.get() < size; spins++) {
+            backoff(spins);
+        }
+        buffer.size = size;
+        return buffer;
+    }
+
+    /**
+     * 自旋等待，超过自旋次数后让出CPU，再超过时park
+     */
+    private static void backoff(int spins) {
+        if (spins < MAX_SPINS) {
+            Thread.onSpinWait();
+        } else if (spins < MAX_SPINS * 2) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(1000);
+        }
+    }
+
+    /**
+     * 分发批次，同步时直接处理，异步时等待许可后交给flusher
+     */
+    private void dispatch(Buffer<T> buffer) {
+        if (flusher == null) {
+            active.incrementAndGet();
+            process(buffer, null, true);
+            return;
+        }
+        Semaphore permits = inFlight;
+        permits.acquireUninterruptibly();
+        active.incrementAndGet();
+        try {
+            flusher.execute(() -> process(buffer, permits, false));
+        } catch (RejectedExecutionException e) {
+            release(permits);
+            throw e;
+        }
+    }
+
+    /**
+     * 处理批次，首次在当前线程处理，需要重试时交给定时线程退避，当前线程不等待
+     * 批次在当前线程上完成且最终失败、未设置deadLetter时，throwOnFailure为true则抛出异常，否则记录日志
+     */
+    private void process(Buffer<T> buffer, Semaphore permits, boolean throwOnFailure) {
+        Batch<T> batch = new Batch<>(buffer, permits);
+        try {
+            handle(batch, batch.list);
+        } finally {
+            // 释放当前线程持有的计数，为0时批次已在当前线程上完成
+            if (batch.pending.decrementAndGet() == 0) {
+                complete(batch, throwOnFailure);
+            }
+        }
+    }
+
+    /**
+     * 处理批次或子批次，失败时有剩余重试次数则退避重试，否则拆分或交给deadLetter
+     */
+    private void handle(Batch<T> batch, List<T> list) {
+        Throwable failure;
+        try {
+            batchConsumer.accept(list);
+            processedSize.getAndAdd(list.size());
+            failure = null;
+        } catch (Throwable e) {
+            metrics.failures.increment();
+            failure = e;
+        }
+        if (failure == null) {
+            finish(batch);
+            return;
+        }
+        if (failure instanceof Error) {
+            fail(batch, list, failure);
+            return;
+        }
+        int retried = batch.retried.getAndIncrement();
+        if (retried < retryTimes) {
+            metrics.retries.increment();
+            retryLater(batch, list, backoffNanos(retried));
+            return;
+        }
+        if (splitOnFailure && list.size() > 1) {
+            metrics.splits.increment();
+            batch.pending.incrementAndGet();
+            int half = list.size() >>> 1;
+            handle(batch, list.subList(0, half));
+            handle(batch, list.subList(half, list.size()));
+            return;
+        }
+        fail(batch, list, failure);
+    }
+
+    /**
+     * 在定时线程上退避，到期后交给flusher重试
+     */
+    private void retryLater(Batch<T> batch, List<T> list, long delayNanos) {
+        Runnable retry = () -> {
+            try {
+                executor().execute(() -> handle(batch, list));
+            } catch (RejectedExecutionException e) {
+                fail(batch, list, e);
+            }
+        };
+        if (delayNanos > 0) {
+            TIMER.schedule(retry, delayNanos, TimeUnit.NANOSECONDS);
+        } else {
+            retry.run();
+        }
+    }
+
+    /**
+     * 最终失败，交给deadLetter，未设置时记录到批次，完成时抛出或记录日志
+     */
+    private void fail(Batch<T> batch, List<T> list, Throwable failure) {
+        try {
+            if (deadLetter != null) {
+                metrics.deadLetterItems.add(list.size());
+                try {
+                    deadLetter.accept(list, failure instanceof Exception
+                            ? (Exception) failure : new RuntimeException("批处理失败", failure));
+                } catch (Exception e) {
+                    log.error("dead letter process error. ", e);
+                }
+            } else {
+                batch.failed(failure);
+            }
+        } finally {
+            finish(batch);
+        }
+    }
+
+    /**
+     * 一个批次或子批次结束，全部结束时完成批次
+     */
+    private void finish(Batch<T> batch) {
+        if (batch.pending.decrementAndGet() == 0) {
+            complete(batch, false);
+        }
+    }
+
+    /**
+     * 批次完成，统计大小及耗时（包括重试、拆分），缓冲区作为备用缓冲区，释放许可
+     */
+    private void complete(Batch<T> batch, boolean throwOnFailure) {
+        batch.buffer.clear();
+        spare.compareAndSet(null, batch.buffer);
+        metrics.flushed(batch.list.size(), System.nanoTime() - batch.start);
+        release(batch.permits);
+        Throwable failure = batch.failure();
+        if (failure != null) {
+            if (throwOnFailure) {
+                if (failure instanceof RuntimeException) {
+                    throw (RuntimeException) failure;
+                }
+                if (failure instanceof Error) {
+                    throw (Error) failure;
+                }
+                throw new RuntimeException("批处理失败", failure);
+            }
+            log.error("batch process error. ", failure);
+        }
+    }
+
+    /**
+     * 释放许可，减少未完成的批次数，为0时通知post
+     */
+    private void release(Semaphore permits) {
+        if (permits != null) {
+            permits.release();
+        }
+        if (active.decrementAndGet() == 0) {
+            synchronized (idle) {
+                idle.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * 第retried+1次重试前的退避时间
+     */
+    private long backoffNanos(int retried) {
+        long backoff = backoffNanos;
+        for (int i = 0; i < retried && backoff < MAX_BACKOFF_NANOS; i++) {
+            backoff <<= 1;
+        }
+        return Math.min(backoff, MAX_BACKOFF_NANOS);
+    }
+
+    /**
+     * 重试、linger到期时处理批次的线程池
+     */
+    private Executor executor() {
+        return flusher != null ? flusher : SHARED_FLUSHER;
+    }
+
+    /**
+     * 新建flusherCount个守护线程的flusher线程池
+     */
+    static ExecutorService newFlusher(int flusherCount) {
+        AtomicInteger num = new AtomicInteger();
+        return Executors.newFixedThreadPool(flusherCount, task -> {
+            Thread thread = new Thread(task, "batch-flusher-" + num.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 批处理统计
+     */
+    public static class Metrics {
+        private final LongAdder batches = new LongAdder();
+        private final LongAdder items = new LongAdder();
+        private final AtomicLong maxBatchSize = new AtomicLong();
+        private final LongAdder totalFlushNanos = new LongAdder();
+        private final AtomicLong maxFlushNanos = new AtomicLong();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder retries = new LongAdder();
+        private final LongAdder splits = new LongAdder();
+        private final LongAdder deadLetterItems = new LongAdder();
+
+        /**
+         * 记录一个批次处理完成
+         */
+        private void flushed(int size, long nanos) {
+            batches.increment();
+            items.add(size);
+            maxBatchSize.accumulateAndGet(size, Math::max);
+            totalFlushNanos.add(nanos);
+            maxFlushNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        /**
+         * 处理的批次数，拆分的批次只计一次
+         */
+        public long batches() {
+            return batches.sum();
+        }
+
+        /**
+         * 平均批次大小
+         */
+        public long avgBatchSize() {
+            long n = batches();
+            return n == 0 ? 0 : items.sum() / n;
+        }
+
+        /**
+         * 最大批次大小
+         */
+        public long maxBatchSize() {
+            return maxBatchSize.get();
+        }
+
+        /**
+         * 平均批次处理耗时，包括重试、拆分
+         */
+        public long avgFlushNanos() {
+            long n = batches();
+            return n == 0 ? 0 : totalFlushNanos.sum() / n;
+        }
+
+        /**
+         * 最大批次处理耗时
+         */
+        public long maxFlushNanos() {
+            return maxFlushNanos.get();
+        }
+
+        /**
+         * batchConsumer抛出异常的次数
+         */
+        public long failures() {
+            return failures.sum();
+        }
+
+        /**
+         * 重试次数
+         */
+        public long retries() {
+            return retries.sum();
+        }
+
+        /**
+         * 拆分次数
+         */
+        public long splits() {
+            return splits.sum();
+        }
+
+        /**
+         * 交给deadLetter的元素数
+         */
+        public long deadLetterItems() {
+            return deadLetterItems.sum();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("[[ batches=%d, avgBatchSize=%d, maxBatchSize=%d, avgFlush=%dns, maxFlush=%dns, " +
+                            "failures=%d, retries=%d, splits=%d, deadLetterItems=%d ]]",
+                    batches(), avgBatchSize(), maxBatchSize(), avgFlushNanos(), maxFlushNanos(),
+                    failures(), retries(), splits(), deadLetterItems());
+        }
+    }
+
+    /**
+     * 处理中的批次，拆分出的子批次共享重试次数，全部结束（成功或最终失败）后完成
+     */
+    private static class Batch<T> {
+        private final Buffer<T> buffer;
+        private final List<T> list;
+        private final Semaphore permits;
+        private final long start = System.nanoTime();
+        /**
+         * 未结束的子批次数，另加1由发起处理的线程持有，避免在发起线程返回前完成
+         */
+        private final AtomicInteger pending = new AtomicInteger(2);
+        /**
+         * 已重试次数
+         */
+        private final AtomicInteger retried = new AtomicInteger();
+        /**
+         * 第一个最终失败的异常，之后的作为suppressed
+         */
+        private Throwable failure;
+
+        private Batch(Buffer<T> buffer, Semaphore permits) {
+            this.buffer = buffer;
+            this.list = buffer.toList();
+            this.permits = permits;
+        }
+
+        private synchronized void failed(Throwable e) {
+            if (failure == null) {
+                failure = e;
+            } else if (failure != e) {
+                failure.addSuppressed(e);
+            }
+        }
+
+        private synchronized Throwable failure() {
+            return failure;
+        }
+    }
+
+    /**
+     * 批次缓冲区，处理时不复制，处理完成后清空复用
+     */
+    private static class Buffer<T> {
+        private final int batchSize;
+        /**
+         * 元素数组，第一个元素写入时分配
+         */
+        private final AtomicReference<Object[]> items = new AtomicReference<>();
+        /**
+         * 已占位数，大于等于batchSize时已封存
+         */
+        private final AtomicInteger reserved = new AtomicInteger();
+        /**
+         * 已写完数
+         */
+        private final AtomicInteger written = new AtomicInteger();
+        /**
+         * 封存时的元素数
+         */
+        private int size;
+
+        private Buffer(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        /**
+         * 元素数组，未分配时分配，并发分配时只保留CAS成功的
+         */
+        private Object[] items() {
+            Object[] array = items.get();
+            if (array == null) {
+                array = new Object[batchSize];
+                if (!items.compareAndSet(null, array)) {
+                    array = items.get();
+                }
+            }
+            return array;
+        }
+
+        /**
+         * 封存的size个元素的定长视图
+         */
+        @SuppressWarnings("unchecked")
+        private List<T> toList() {
+            List<T> list = Arrays.asList((T[]) items());
+            return size == batchSize ? list : list.subList(0, size);
+        }
+
+        /**
+         * 处理完成后清空元素、已写完数，占位数仍不小于batchSize，切换为当前缓冲区时再重置
+         */
+        private void clear() {
+            Arrays.fill(items(), 0, size, null);
+            written.set(0);
+        }
+    }
 }
@@ -2,14 +2,27 @@ package com.kiligz.batch;
 
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * 批处理工具类
+ * <pre>
+ * 1.List分批返回惰性视图，不复制元素，不预先生成子列表，get时才生成subList
+ *   视图与原列表共享元素，原列表大小改变后get抛出ConcurrentModificationException
+ *   视图实现RandomAccess，spliterator按下标对半拆分，适合parallelStream
+ * 2.Iterator、Stream分批按需读取，适合无界输入
+ * </pre>
  *
  * @author ivan.zhu
  * @since 2024/10/11
@@ -17,21 +30,148 @@ import java.util.stream.Stream;
 @Slf4j
 public class BatchUtil {
     /**
-     * 按指定大小分批
+     * 按指定大小分批，RandomAccess的List不复制，其他集合先复制为ArrayList
+     * 返回原列表的视图，需要独立于原列表时复制批次，如new ArrayList<>(batch)
      */
     public static <T> List<List<T>> bySize(Collection<T> c, int batchSize) {
-        List<T> list = new ArrayList<>(c);
-        return Stream.iterate(0, i -> i + batchSize)
-                .limit((list.size() + batchSize - 1) / batchSize)
-                .map(i -> list.subList(i, Math.min(i + batchSize, list.size())))
-                .collect(Collectors.toList());
+        checkPositive(batchSize, "batchSize");
+        return new SizePartition<>(asRandomAccess(c), batchSize);
     }
 
     /**
-     * 分成指定批次
+     * 分成指定批次，各批大小最多相差1，元素数不少于batchCount时正好batchCount批，
+     * 少于时每批一个元素，不返回空批次
+     * 返回原列表的视图，需要独立于原列表时复制批次，如new ArrayList<>(batch)
      */
     public static <T> List<List<T>> byCount(Collection<T> c, int batchCount) {
-        int batchSize = (int) Math.ceil((double) c.size() / batchCount);
-        return bySize(c, batchSize);
+        checkPositive(batchCount, "batchCount");
+        return new CountPartition<>(asRandomAccess(c), batchCount);
+    }
+
+    /**
+     * 迭代器按指定大小分批，每批按需读取，最后一批可能不满
+     */
+    public static <T> Iterator<List<T>> bySize(Iterator<T> iterator, int batchSize) {
+        checkPositive(batchSize, "batchSize");
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public List<T> next() {
+                if (!iterator.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                List<T> batch = new ArrayList<>(batchSize);
+                while (batch.size() < batchSize && iterator.hasNext()) {
+                    batch.add(iterator.next());
+                }
+                return batch;
+            }
+        };
+    }
+
+    /**
+     * 流按指定大小分批，惰性读取，可用于无界流，关闭时关闭原流
+     */
+    public static <T> Stream<List<T>> bySize(Stream<T> stream, int batchSize) {
+        Iterator<List<T>> batches = bySize(stream.iterator(), batchSize);
+        Spliterator<List<T>> spliterator = Spliterators.spliteratorUnknownSize(batches,
+                Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, stream.isParallel()).onClose(stream::close);
+    }
+
+    /**
+     * 转为可随机访问的列表，已是时不复制
+     */
+    private static <T> List<T> asRandomAccess(Collection<T> c) {
+        return c instanceof List && c instanceof RandomAccess ? (List<T>) c : new ArrayList<>(c);
+    }
+
+    /**
+     * 原列表大小改变时，视图的批次边界已失效
+     */
+    private static void checkSize(List<?> list, int expected) {
+        if (list.size() != expected) {
+            throw new ConcurrentModificationException("list size changed: " + expected + " -> " + list.size());
+        }
+    }
+
+    private static void checkPositive(int value, String name) {
+        if (value <= 0) {
+            throw new IllegalArgumentException(name + " must be positive: " + value);
+        }
+    }
+
+    /**
+     * 按大小分批的视图
+     */
+    private static class SizePartition<T> extends AbstractList<List<T>> implements RandomAccess {
+        private final List<T> list;
+        private final int listSize;
+        private final int batchSize;
+
+        private SizePartition(List<T> list, int batchSize) {
+            this.list = list;
+            this.listSize = list.size();
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        public List<T> get(int index) {
+            int size = size();
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+            }
+            checkSize(list, listSize);
+            int start = index * batchSize;
+            return list.subList(start, Math.min(start + batchSize, listSize));
+        }
+
+        @Override
+        public int size() {
+            return (int) (((long) listSize + batchSize - 1) / batchSize);
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return listSize == 0;
+        }
+    }
+
+    /**
+     * 按批次数均分的视图，前 size % batchCount 批多一个元素
+     */
+    private static class CountPartition<T> extends AbstractList<List<T>> implements RandomAccess {
+        private final List<T> list;
+        private final int listSize;
+        private final int batchCount;
+
+        private CountPartition(List<T> list, int batchCount) {
+            this.list = list;
+            this.listSize = list.size();
+            // 元素数少于批次数时每批一个元素，不返回空批次
+            this.batchCount = Math.min(batchCount, listSize);
+        }
+
+        @Override
+        public List<T> get(int index) {
+            if (index < 0 || index >= batchCount) {
+                throw new IndexOutOfBoundsException("index: " + index + ", size: " + batchCount);
+            }
+            checkSize(list, listSize);
+            int base = listSize / batchCount;
+            int remainder = listSize % batchCount;
+            int start = index * base + Math.min(index, remainder);
+            int end = start + base + (index < remainder ? 1 : 0);
+            return list.subList(start, end);
+        }
+
+        @Override
+        public int size() {
+            return batchCount;
+        }
     }
 }
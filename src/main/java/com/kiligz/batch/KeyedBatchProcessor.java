@@ -0,0 +1,348 @@
+package com.kiligz.batch;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * 按key分批的线程安全批处理器
+ * <pre>
+ * 1.每个key一个{@link BatchProcessor}，批次内元素的key相同，如按租户、表分批写入
+ * 2.每个key的批次都按batchSize、linger触发处理，缓冲区在key有元素时才分配
+ * 3.设置maxPending（元素数）或maxPendingBytes（按sizeEstimator估算的字节数）后，
+ *   未处理完的总量（包括处理中的批次，batchConsumer返回后才减少）超过上限时，
+ *   优先处理未处理完最多的key的批次，直到缓冲的量降到一半，处理中的量仍超过上限时添加元素的线程等待
+ * 4.设置expireAfterIdle后，超过该时间没有添加元素的key，处理剩余元素后移除
+ * </pre>
+ *
+ * @author ivan.zhu
+ * @since 2026/10/19
+ */
+public class KeyedBatchProcessor<K, T> implements AutoCloseable {
+    private final int batchSize;
+
+    private final BiConsumer<K, List<T>> batchConsumer;
+
+    /**
+     * key -> 批处理器
+     */
+    private final Map<K, KeyProcessor<T>> processors = new ConcurrentHashMap<>();
+
+    /**
+     * 已移除、可能还有批次在处理中的批处理器，post时等待
+     */
+    private final Queue<BatchProcessor<T>> evicted = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 所有key未处理完的总量，添加时增加，batchConsumer返回后减少，单位见sizeEstimator
+     */
+    private final AtomicLong pending = new AtomicLong();
+
+    private final AtomicLong processedSize = new AtomicLong();
+
+    /**
+     * 所有key未处理完的总量上限
+     */
+    private long maxPending = Long.MAX_VALUE;
+
+    /**
+     * 元素的量，默认每个元素为1，即按元素数限制
+     */
+    private ToLongFunction<? super T> sizeEstimator = t -> 1;
+
+    /**
+     * 每个key的linger
+     */
+    private long lingerNanos;
+
+    /**
+     * key的最大空闲时间，0表示不移除，及上次检查空闲key的时间
+     */
+    private long idleNanos;
+    private final AtomicLong lastSweep = new AtomicLong(System.nanoTime());
+
+    /**
+     * 所有key共享的flusher线程池，及每个key处理中的批次数上限
+     */
+    private ExecutorService flusher;
+    private int maxInFlight;
+
+    public KeyedBatchProcessor(int batchSize, BiConsumer<K, List<T>> batchConsumer) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        this.batchSize = batchSize;
+        this.batchConsumer = batchConsumer;
+    }
+
+    /**
+     * 设置每个key元素的最大等待时间，见{@link BatchProcessor#linger}
+     */
+    public KeyedBatchProcessor<K, T> linger(long linger, TimeUnit unit) {
+        this.lingerNanos = unit.toNanos(linger);
+        return this;
+    }
+
+    /**
+     * 异步批处理，所有key共享flusherCount个守护线程，每个key最多maxInFlight个批次在处理中
+     */
+    public KeyedBatchProcessor<K, T> async(int flusherCount, int maxInFlight) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+        }
+        this.flusher = BatchProcessor.newFlusher(flusherCount);
+        this.maxInFlight = maxInFlight;
+        return this;
+    }
+
+    /**
+     * 设置所有key未处理完的元素总数上限，超过时优先处理元素最多的批次，处理中的元素仍超过时等待
+     */
+    public KeyedBatchProcessor<K, T> maxPending(long maxPending) {
+        return maxPendingBytes(maxPending, t -> 1);
+    }
+
+    /**
+     * 设置所有key未处理完的元素字节数上限，按sizeEstimator估算，超过时优先处理字节数最多的key，处理中的仍超过时等待
+     * sizeEstimator在添加时、batchConsumer返回后各调用一次，对同一元素需返回相同的值
+     */
+    public KeyedBatchProcessor<K, T> maxPendingBytes(long maxBytes, ToLongFunction<? super T> sizeEstimator) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+        }
+        this.maxPending = maxBytes;
+        this.sizeEstimator = sizeEstimator;
+        return this;
+    }
+
+    /**
+     * 超过idle时间没有添加元素的key，处理剩余元素后移除，由添加元素的线程每隔idle时间检查一次
+     */
+    public KeyedBatchProcessor<K, T> expireAfterIdle(long idle, TimeUnit unit) {
+        this.idleNanos = unit.toNanos(idle);
+        return this;
+    }
+
+    /**
+     * 添加元素到key对应的批次
+     */
+    public void add(K key, T t) {
+        long size = estimate(t);
+        pending.addAndGet(size);
+        while (true) {
+            KeyProcessor<T> kp = processors.computeIfAbsent(key, this::newProcessor);
+            if (kp.acquire()) {
+                try {
+                    if (idleNanos > 0) {
+                        kp.lastAccess = System.nanoTime();
+                    }
+                    kp.pending.addAndGet(size);
+                    kp.processor.add(t);
+                } finally {
+                    kp.release();
+                }
+                break;
+            }
+            // 正在被移除，移除后新建
+            processors.remove(key, kp);
+        }
+        if (pending.get() > maxPending) {
+            shrink();
+            // 处理中的批次还未完成，等待batchConsumer返回
+            while (pending.get() > maxPending) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+            }
+        }
+        evictIdle();
+    }
+
+    /**
+     * 处理所有key未达到batchSize的元素，异步时等待所有批次处理完成
+     */
+    public void post() {
+        processors.values().forEach(kp -> kp.processor.post());
+        evicted.forEach(BatchProcessor::post);
+        evicted.removeIf(BatchProcessor::isIdle);
+    }
+
+    /**
+     * 处理剩余元素，并关闭flusher
+     */
+    @Override
+    public void close() {
+        post();
+        if (flusher != null) {
+            flusher.shutdown();
+        }
+    }
+
+    /**
+     * 获取所有key处理过的总量，包括已移除的key
+     */
+    public long processedSize() {
+        return processedSize.get();
+    }
+
+    /**
+     * 所有key未处理完的总量（元素数，设置maxPendingBytes时为估算的字节数），包括处理中的批次
+     */
+    public long pendingSize() {
+        return pending.get();
+    }
+
+    /**
+     * 当前的key数
+     */
+    public int keySize() {
+        return processors.size();
+    }
+
+    /**
+     * 按key未处理完的量从大到小处理有缓冲元素的key的批次，直到这些key的总量不超过maxPending的一半，避免每次add都触发
+     */
+    private synchronized void shrink() {
+        if (pending.get() <= maxPending) {
+            return;
+        }
+        List<Map.Entry<BatchProcessor<T>, Long>> sizes = new ArrayList<>();
+        long total = 0;
+        for (KeyProcessor<T> kp : processors.values()) {
+            long size = kp.pending.get();
+            if (size > 0 && kp.processor.pendingSize() > 0) {
+                sizes.add(Map.entry(kp.processor, size));
+                total += size;
+            }
+        }
+        sizes.sort(Map.Entry.<BatchProcessor<T>, Long>comparingByValue(Comparator.reverseOrder()));
+        for (Map.Entry<BatchProcessor<T>, Long> entry : sizes) {
+            if (total <= maxPending / 2) {
+                break;
+            }
+            entry.getKey().flush();
+            total -= entry.getValue();
+        }
+    }
+
+    /**
+     * 距上次检查超过idle时间时，移除空闲的key，没有线程正在添加元素时才移除，移除后处理剩余元素
+     */
+    private void evictIdle() {
+        if (idleNanos <= 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        long last = lastSweep.get();
+        if (now - last < idleNanos || !lastSweep.compareAndSet(last, now)) {
+            return;
+        }
+        evicted.removeIf(BatchProcessor::isIdle);
+        for (Map.Entry<K, KeyProcessor<T>> entry : processors.entrySet()) {
+            KeyProcessor<T> kp = entry.getValue();
+            if (now - kp.lastAccess >= idleNanos && kp.retire()) {
+                processors.remove(entry.getKey(), kp);
+                kp.processor.flush();
+                if (!kp.processor.isIdle()) {
+                    evicted.add(kp.processor);
+                }
+            }
+        }
+    }
+
+    /**
+     * 新建key对应的批处理器，batchConsumer返回后减少未处理完的量
+     */
+    private KeyProcessor<T> newProcessor(K key) {
+        AtomicLong keyPending = new AtomicLong();
+        BatchProcessor<T> processor = new BatchProcessor<>(batchSize, list -> {
+            try {
+                batchConsumer.accept(key, list);
+                processedSize.getAndAdd(list.size());
+            } finally {
+                long size = 0;
+                for (T t : list) {
+                    size += estimate(t);
+                }
+                pending.getAndAdd(-size);
+                keyPending.getAndAdd(-size);
+            }
+        });
+        if (lingerNanos > 0) {
+            processor.linger(lingerNanos, TimeUnit.NANOSECONDS);
+        }
+        if (flusher != null) {
+            processor.async(flusher, maxInFlight);
+        }
+        return new KeyProcessor<>(processor, keyPending);
+    }
+
+    /**
+     * 元素的量，不能为负数
+     */
+    private long estimate(T t) {
+        long size = sizeEstimator.applyAsLong(t);
+        if (size < 0) {
+            throw new IllegalArgumentException("estimated size must not be negative: " + size);
+        }
+        return size;
+    }
+
+    /**
+     * key对应的批处理器及其使用状态
+     */
+    private static class KeyProcessor<T> {
+        private final BatchProcessor<T> processor;
+        /**
+         * 该key未处理完的量，包括处理中的批次
+         */
+        private final AtomicLong pending;
+        /**
+         * 最后添加元素的时间
+         */
+        private volatile long lastAccess = System.nanoTime();
+        /**
+         * 正在添加元素的线程数，-1表示已移除
+         */
+        private final AtomicInteger users = new AtomicInteger();
+
+        private KeyProcessor(BatchProcessor<T> processor, AtomicLong pending) {
+            this.processor = processor;
+            this.pending = pending;
+        }
+
+        /**
+         * 未移除时登记为正在添加元素
+         */
+        private boolean acquire() {
+            int u;
+            do {
+                u = users.get();
+                if (u < 0) {
+                    return false;
+                }
+            } while (!users.compareAndSet(u, u + 1));
+            return true;
+        }
+
+        private void release() {
+            users.decrementAndGet();
+        }
+
+        /**
+         * 没有线程正在添加元素时标记为已移除
+         */
+        private boolean retire() {
+            return users.compareAndSet(0, -1);
+        }
+    }
+}
@@ -0,0 +1,436 @@
+package com.kiligz.concurrent;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToLongFunction;
+
+/**
+ * 按字节预算限制的BlockingQueue
+ * <pre>
+ * 1.通过sizeEstimator估算每个元素的字节数，队列中元素字节数之和超过budget时阻塞生产者
+ * 2.单个元素超过budget时，只在队列为空时放入，避免永远无法放入
+ * 3.与{@link MemorySafeLinkedBlockingQueue}按JVM剩余内存限制不同，只限制自身占用，适合大对象缓冲
+ * 4.生产者按到达顺序放入，有生产者在等待时后到的生产者排在其后，大元素不会被持续放入的小元素饿死
+ * </pre>
+ *
+ * @author ivan.zhu
+ * @since 2026/10/19
+ */
+public class ByteBudgetBlockingQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+    /**
+     * 字节预算
+     */
+    @Getter
+    private final long budget;
+
+    /**
+     * 元素字节数估算
+     */
+    private final ToLongFunction<? super E> sizeEstimator;
+
+    /**
+     * 元素及其入队时估算的字节数
+     */
+    private final ArrayDeque<Entry<E>> entries = new ArrayDeque<>();
+
+    /**
+     * 队列中元素的字节数之和
+     */
+    private long queuedBytes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+
+    /**
+     * 等待放入的生产者，按到达顺序排队，只有队首在空间足够时放入
+     */
+    private final ArrayDeque<Condition> waiters = new ArrayDeque<>();
+
+    public ByteBudgetBlockingQueue(long budget, @NonNull ToLongFunction<? super E> sizeEstimator) {
+        if (budget <= 0) {
+            throw new IllegalArgumentException("budget must be positive: " + budget);
+        }
+        this.budget = budget;
+        this.sizeEstimator = sizeEstimator;
+    }
+
+    /**
+     * 队列中元素的字节数之和
+     */
+    public long queuedBytes() {
+        lock.lock();
+        try {
+            return queuedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 剩余的字节预算
+     */
+    public long remainingBytes() {
+        lock.lock();
+        try {
+            return Math.max(budget - queuedBytes, 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * put，超出字节预算时等待
+     */
+    @Override
+    public void put(@NonNull E e) throws InterruptedException {
+        long bytes = estimate(e);
+        lock.lockInterruptibly();
+        try {
+            if (waiters.isEmpty() && fits(bytes)) {
+                enqueue(e, bytes);
+                return;
+            }
+            Condition waiter = lock.newCondition();
+            waiters.addLast(waiter);
+            try {
+                while (waiters.peekFirst() != waiter || !fits(bytes)) {
+                    waiter.await();
+                }
+                enqueue(e, bytes);
+            } finally {
+                leave(waiter);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * offer，超出字节预算或有生产者在等待时返回false
+     */
+    @Override
+    public boolean offer(@NonNull E e) {
+        long bytes = estimate(e);
+        lock.lock();
+        try {
+            if (!waiters.isEmpty() || !fits(bytes)) {
+                return false;
+            }
+            enqueue(e, bytes);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * offer，超出字节预算时在超时时间内等待
+     */
+    @Override
+    public boolean offer(@NonNull E e, long timeout, TimeUnit unit) throws InterruptedException {
+        long bytes = estimate(e);
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            if (waiters.isEmpty() && fits(bytes)) {
+                enqueue(e, bytes);
+                return true;
+            }
+            Condition waiter = lock.newCondition();
+            waiters.addLast(waiter);
+            try {
+                while (waiters.peekFirst() != waiter || !fits(bytes)) {
+                    if (nanos <= 0) {
+                        return false;
+                    }
+                    nanos = waiter.awaitNanos(nanos);
+                }
+                enqueue(e, bytes);
+                return true;
+            } finally {
+                leave(waiter);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * take
+     */
+    @Override
+    public E take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (entries.isEmpty()) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * poll
+     */
+    @Override
+    public E poll() {
+        lock.lock();
+        try {
+            return entries.isEmpty() ? null : dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * poll
+     */
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (entries.isEmpty()) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * peek
+     */
+    @Override
+    public E peek() {
+        lock.lock();
+        try {
+            Entry<E> entry = entries.peekFirst();
+            return entry == null ? null : entry.e;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 按元素个数无上限，按字节预算是否已满返回
+     */
+    @Override
+    public int remainingCapacity() {
+        return remainingBytes() > 0 ? Integer.MAX_VALUE : 0;
+    }
+
+    /**
+     * 删除指定元素
+     */
+    @Override
+    public boolean remove(Object o) {
+        if (o == null) {
+            return false;
+        }
+        lock.lock();
+        try {
+            Iterator<Entry<E>> it = entries.iterator();
+            while (it.hasNext()) {
+                Entry<E> entry = it.next();
+                if (o.equals(entry.e)) {
+                    it.remove();
+                    released(entry.bytes);
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * drainTo
+     */
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    /**
+     * drainTo
+     */
+    @Override
+    public int drainTo(@NonNull Collection<? super E> c, int maxElements) {
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        lock.lock();
+        try {
+            int n = 0;
+            long bytes = 0;
+            while (n < maxElements && !entries.isEmpty()) {
+                Entry<E> entry = entries.pollFirst();
+                c.add(entry.e);
+                bytes += entry.bytes;
+                n++;
+            }
+            if (n > 0) {
+                released(bytes);
+            }
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 清空队列
+     */
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            entries.clear();
+            queuedBytes = 0;
+            signalHead();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 元素个数
+     */
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 快照迭代器，remove会从队列中删除对应元素
+     */
+    @Override
+    public Iterator<E> iterator() {
+        List<E> snapshot = new ArrayList<>();
+        lock.lock();
+        try {
+            entries.forEach(entry -> snapshot.add(entry.e));
+        } finally {
+            lock.unlock();
+        }
+        Iterator<E> it = snapshot.iterator();
+        return new Iterator<E>() {
+            private E last;
+
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public E next() {
+                return last = it.next();
+            }
+
+            @Override
+            public void remove() {
+                if (last == null) {
+                    throw new IllegalStateException();
+                }
+                ByteBudgetBlockingQueue.this.remove(last);
+                last = null;
+            }
+        };
+    }
+
+    /**
+     * 估算元素字节数
+     */
+    private long estimate(E e) {
+        long bytes = sizeEstimator.applyAsLong(e);
+        if (bytes < 0) {
+            throw new IllegalArgumentException("estimated size must not be negative: " + bytes);
+        }
+        return bytes;
+    }
+
+    /**
+     * 是否可放入，持有锁时调用，按剩余预算比较避免相加溢出
+     */
+    private boolean fits(long bytes) {
+        return entries.isEmpty() || bytes <= budget - queuedBytes;
+    }
+
+    /**
+     * 入队，持有锁时调用
+     */
+    private void enqueue(E e, long bytes) {
+        entries.addLast(new Entry<>(e, bytes));
+        queuedBytes += bytes;
+        notEmpty.signal();
+    }
+
+    /**
+     * 出队，持有锁时调用
+     */
+    private E dequeue() {
+        Entry<E> entry = entries.pollFirst();
+        released(entry.bytes);
+        return entry.e;
+    }
+
+    /**
+     * 释放字节数并唤醒队首的生产者，持有锁时调用
+     */
+    private void released(long bytes) {
+        queuedBytes -= bytes;
+        signalHead();
+    }
+
+    /**
+     * 唤醒队首的生产者，持有锁时调用
+     */
+    private void signalHead() {
+        Condition head = waiters.peekFirst();
+        if (head != null) {
+            head.signal();
+        }
+    }
+
+    /**
+     * 生产者放入、超时或中断后离开等待队列，唤醒新的队首，持有锁时调用
+     */
+    private void leave(Condition waiter) {
+        waiters.remove(waiter);
+        signalHead();
+    }
+
+    /**
+     * 元素及其字节数
+     */
+    @RequiredArgsConstructor
+    private static class Entry<E> {
+        private final E e;
+        private final long bytes;
+    }
+}
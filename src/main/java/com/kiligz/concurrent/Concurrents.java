@@ -5,6 +5,7 @@ import lombok.*;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
@@ -25,6 +26,7 @@ import java.util.function.Supplier;
  *   - 支持简便的观察者模式生产和消费数据
  *   - 支持数据生产消费完毕后自动停止任务
  *   - 支持指定生产者消费者线程数
+ *   - 支持以Flow.Publisher作为数据源，按消费进度request
  * 5.线程池创建 --- {@link ThreadPool}
  *   - 线程池使用;
  *   - CountDownLatch;
@@ -214,6 +216,15 @@ public final class Concurrents {
             return this;
         }
 
+        /**
+         * 以Flow.Publisher作为生产者，只订阅一次
+         * 数据被消费者取走后才继续request，慢消费者会反压上游，不会无限缓冲
+         */
+        public Observer<T> publisher(Flow.Publisher<? extends T> publisher) {
+            this.producer = new FlowProducer(publisher);
+            return this;
+        }
+
         public Observer<T> consumer(Consumer<T> consumer) {
             this.consumer = consumer;
             return this;
@@ -273,6 +284,85 @@ public final class Concurrents {
         public static interface Producer<T> extends Consumer<Consumer<T>> {
         }
 
+        /**
+         * Flow.Subscriber生产者，初始request消费者线程数个数据，每交给消费者一个再request一个
+         */
+        private class FlowProducer implements Producer<T>, Flow.Subscriber<T> {
+            private final Flow.Publisher<? extends T> publisher;
+            /**
+             * 已发出、未交给消费者的数据及结束信号
+             */
+            private final BlockingQueue<Object> buffer = new LinkedBlockingQueue<>();
+            private final AtomicBoolean subscribed = new AtomicBoolean();
+            private volatile Flow.Subscription subscription;
+
+            private FlowProducer(Flow.Publisher<? extends T> publisher) {
+                this.publisher = publisher;
+            }
+
+            @Override
+            public void accept(Consumer<T> csm) {
+                // 多个生产者线程时只订阅一次
+                if (!subscribed.compareAndSet(false, true)) {
+                    return;
+                }
+                publisher.subscribe(this);
+                try {
+                    while (true) {
+                        Object signal = buffer.take();
+                        if (signal instanceof Complete) {
+                            return;
+                        }
+                        if (signal instanceof Failure) {
+                            throw new RuntimeException("Publish data error. ", ((Failure) signal).e);
+                        }
+                        @SuppressWarnings("unchecked")
+                        T data = (T) signal;
+                        csm.accept(data);
+                        subscription.request(1);
+                    }
+                } catch (InterruptedException e) {
+                    subscription.cancel();
+                    throw new RuntimeException(e);
+                }
+            }
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(Math.max(consumerCount, 1));
+            }
+
+            @Override
+            public void onNext(T item) {
+                buffer.add(item);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                buffer.add(new Failure(throwable));
+            }
+
+            @Override
+            public void onComplete() {
+                buffer.add(new Complete());
+            }
+        }
+
+        /**
+         * Flow结束信号
+         */
+        private static class Complete {
+        }
+
+        /**
+         * Flow异常信号
+         */
+        @RequiredArgsConstructor
+        private static class Failure {
+            private final Throwable e;
+        }
+
         /**
          * 任务封装
          */
@@ -610,14 +700,19 @@ public final class Concurrents {
     @Setter
     private static int corePoolSize = IO_INTENSIVE;
 
+    // Fixed、Single线程池任务队列容量，大于0时使用无锁有界数组队列，队列满时由提交任务的线程执行
+    @Setter
+    private static int queueCapacity = 0;
+
     /**
      * 新建Fixed线程池
      */
     public static ThreadPoolExecutor newFixedThreadPool(String name) {
         return new ThreadPoolExecutor(corePoolSize, corePoolSize,
                 0, TimeUnit.SECONDS,
-                new LinkedTransferQueue<>(),
-                new NamedThreadFactory(name));
+                newWorkQueue(),
+                new NamedThreadFactory(name),
+                newRejectedHandler());
     }
 
     /**
@@ -626,8 +721,9 @@ public final class Concurrents {
     public static ThreadPoolExecutor newSingleThreadPool(String name) {
         return new ThreadPoolExecutor(1, 1,
                 0, TimeUnit.SECONDS,
-                new LinkedTransferQueue<>(),
-                new NamedThreadFactory(name));
+                newWorkQueue(),
+                new NamedThreadFactory(name),
+                newRejectedHandler());
     }
 
     /**
@@ -649,6 +745,21 @@ public final class Concurrents {
     }
 
 
+    /**
+     * 新建任务队列，默认无界LinkedTransferQueue
+     */
+    private static BlockingQueue<Runnable> newWorkQueue() {
+        return queueCapacity > 0 ? new MpmcArrayBlockingQueue<>(queueCapacity) : new LinkedTransferQueue<>();
+    }
+
+    /**
+     * 新建拒绝策略，有界队列满时由提交任务的线程执行
+     */
+    private static RejectedExecutionHandler newRejectedHandler() {
+        return queueCapacity > 0 ? new ThreadPoolExecutor.CallerRunsPolicy() : new ThreadPoolExecutor.AbortPolicy();
+    }
+
+
     /**
      * 命名工厂
      */
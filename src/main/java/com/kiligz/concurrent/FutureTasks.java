@@ -7,6 +7,9 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
 
@@ -15,6 +18,7 @@ import java.util.function.Function;
  * 支持CompletableFuture
  * 支持控制任务执行速度，避免一下占用太多内存
  * 支持监控
+ * 支持以Flow.Publisher发布结果，按订阅者request反压任务提交
  *
  * @author ivan.zhu
  * @since 2024/7/3
@@ -59,6 +63,10 @@ public class FutureTasks<T> {
      * 异常处理
      */
     private final AtomicReference<Throwable> eRef = new AtomicReference<>();
+    /**
+     * 结果订阅，只支持一个订阅者
+     */
+    private final AtomicReference<ResultSubscription> subscriptionRef = new AtomicReference<>();
 
     public FutureTasks(int total) {
         this(total, DEFAULT_NAME);
@@ -116,18 +124,26 @@ public class FutureTasks<T> {
             semaphore.acquire();
             // 完成后收集结果、更新监控状态并释放并发许可
             cf.whenComplete((res, e) -> {
+                // 有订阅者时，结果被消费后才释放许可，先占用再入队，避免结果先被发出而占用的许可无人释放
+                ResultSubscription subscription = subscriptionRef.get();
+                boolean held = subscription != null && subscription.hold(res);
                 if (res != null) {
                     resQueue.add(res);
                 }
                 if (e != null) {
                     eRef.set(e);
                 }
-                semaphore.release();
+                if (!held) {
+                    semaphore.release();
+                }
                 countDownLatch.countDown();
 
                 if (detailStatus) {
                     status(res);
                 }
+                if (subscription != null) {
+                    subscription.drain();
+                }
             });
         } catch (Exception e) {
             throw new RuntimeException(e);
@@ -162,6 +178,32 @@ public class FutureTasks<T> {
         return (T) get(true, Queue::poll);
     }
 
+    /**
+     * 以Flow.Publisher发布任务结果，只支持一个订阅者，需在add任务之前订阅
+     * 结果在订阅者request后才会发出，未发出的结果会占用并发许可，慢订阅者会阻塞add，避免结果无限堆积
+     * 订阅后结果由订阅者消费，不应再调用getAll、getAny
+     */
+    public Flow.Publisher<T> publisher() {
+        return subscriber -> {
+            ResultSubscription subscription = new ResultSubscription(subscriber);
+            if (!subscriptionRef.compareAndSet(null, subscription)) {
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    @Override
+                    public void request(long n) {
+                    }
+
+                    @Override
+                    public void cancel() {
+                    }
+                });
+                subscriber.onError(new IllegalStateException("FutureTasks only supports one subscriber"));
+                return;
+            }
+            subscriber.onSubscribe(subscription);
+            subscription.drain();
+        };
+    }
+
     /**
      * 获取任务结果
      */
@@ -216,4 +258,115 @@ public class FutureTasks<T> {
             scheduler.shutdown();
         }
     }
+
+    /**
+     * 结果订阅，按request数量从结果队列中发出结果
+     */
+    private class ResultSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super T> subscriber;
+        /**
+         * 未满足的请求数
+         */
+        private final AtomicLong requested = new AtomicLong();
+        /**
+         * 保证同一时刻只有一个线程发出结果
+         */
+        private final AtomicInteger wip = new AtomicInteger();
+        /**
+         * 未释放的并发许可数
+         */
+        private final AtomicInteger heldPermits = new AtomicInteger();
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        private ResultSubscription(Flow.Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                if (done.compareAndSet(false, true)) {
+                    releaseHeld();
+                    subscriber.onError(new IllegalArgumentException("request must be positive: " + n));
+                }
+                return;
+            }
+            requested.getAndUpdate(r -> r + n < 0 ? Long.MAX_VALUE : r + n);
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            if (done.compareAndSet(false, true)) {
+                releaseHeld();
+            }
+        }
+
+        /**
+         * 占用结果的并发许可，返回是否占用成功
+         */
+        private boolean hold(T res) {
+            if (res == null || done.get()) {
+                return false;
+            }
+            heldPermits.incrementAndGet();
+            // 占用后被取消，由本线程释放
+            if (done.get()) {
+                releaseHeld();
+            }
+            return true;
+        }
+
+        /**
+         * 释放所有占用的许可
+         */
+        private void releaseHeld() {
+            int held = heldPermits.getAndSet(0);
+            if (held > 0) {
+                semaphore.release(held);
+            }
+        }
+
+        /**
+         * 发出结果，直到没有请求或没有结果
+         */
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                while (!done.get()) {
+                    Throwable e = eRef.get();
+                    if (e != null) {
+                        if (done.compareAndSet(false, true)) {
+                            releaseHeld();
+                            subscriber.onError(e);
+                        }
+                        return;
+                    }
+                    if (resQueue.isEmpty() && countDownLatch.getCount() == 0) {
+                        if (done.compareAndSet(false, true)) {
+                            shutdownScheduler();
+                            subscriber.onComplete();
+                        }
+                        return;
+                    }
+                    if (requested.get() == 0) {
+                        break;
+                    }
+                    T res = resQueue.poll();
+                    if (res == null) {
+                        break;
+                    }
+                    requested.getAndUpdate(r -> r == Long.MAX_VALUE ? r : r - 1);
+                    if (heldPermits.getAndUpdate(p -> p > 0 ? p - 1 : p) > 0) {
+                        semaphore.release();
+                    }
+                    subscriber.onNext(res);
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
 }
@@ -0,0 +1,182 @@
+package com.kiligz.concurrent;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 锁的性能统计
+ * <pre>
+ * 1.加锁等待耗时直方图，按纳秒数的2的幂分桶
+ * 2.自旋次数、park次数
+ * 3.持有锁的最大耗时、总耗时
+ * </pre>
+ *
+ * @author ivan.zhu
+ * @since 2026/10/19
+ */
+public class LockProfiler {
+    /**
+     * 直方图桶数，第i个桶统计 [2^(i-1), 2^i) 纳秒
+     */
+    private static final int BUCKETS = 64;
+
+    private final LongAdder acquisitions = new LongAdder();
+    private final LongAdder contended = new LongAdder();
+    private final LongAdder spins = new LongAdder();
+    private final LongAdder parks = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLongArray waitHistogram = new AtomicLongArray(BUCKETS);
+
+    private final LongAdder releases = new LongAdder();
+    private final LongAdder totalHoldNanos = new LongAdder();
+    private final AtomicLong maxHoldNanos = new AtomicLong();
+
+    /**
+     * 记录一次加锁
+     */
+    void acquired(long waitNanos, int spins, int parks) {
+        acquisitions.increment();
+        if (spins > 0 || parks > 0) {
+            contended.increment();
+            this.spins.add(spins);
+            this.parks.add(parks);
+        }
+        totalWaitNanos.add(waitNanos);
+        waitHistogram.incrementAndGet(bucket(waitNanos));
+    }
+
+    /**
+     * 记录一次完全释放锁
+     */
+    void released(long holdNanos) {
+        releases.increment();
+        totalHoldNanos.add(holdNanos);
+        maxHoldNanos.accumulateAndGet(holdNanos, Math::max);
+    }
+
+    /**
+     * 加锁次数
+     */
+    public long acquisitions() {
+        return acquisitions.sum();
+    }
+
+    /**
+     * 需要等待的加锁次数
+     */
+    public long contended() {
+        return contended.sum();
+    }
+
+    /**
+     * 自旋总次数
+     */
+    public long spins() {
+        return spins.sum();
+    }
+
+    /**
+     * park总次数
+     */
+    public long parks() {
+        return parks.sum();
+    }
+
+    /**
+     * park次数占自旋加park次数的比例，越大说明自旋阶段越不够用
+     */
+    public double parkRatio() {
+        long s = spins(), p = parks();
+        return s + p == 0 ? 0 : (double) p / (s + p);
+    }
+
+    /**
+     * 平均加锁等待耗时
+     */
+    public long avgWaitNanos() {
+        long n = acquisitions();
+        return n == 0 ? 0 : totalWaitNanos.sum() / n;
+    }
+
+    /**
+     * 加锁等待耗时的分位数（所在桶的上界），如0.99
+     */
+    public long waitPercentileNanos(double percentile) {
+        if (percentile <= 0 || percentile > 1) {
+            throw new IllegalArgumentException();
+        }
+        long[] histogram = waitHistogram();
+        long total = 0;
+        for (long count : histogram) {
+            total += count;
+        }
+        long target = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += histogram[i];
+            if (seen >= target && seen > 0) {
+                return i == 0 ? 0 : (i >= 63 ? Long.MAX_VALUE : (1L << i) - 1);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 加锁等待耗时直方图，第i个元素为 [2^(i-1), 2^i) 纳秒的次数
+     */
+    public long[] waitHistogram() {
+        long[] histogram = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            histogram[i] = waitHistogram.get(i);
+        }
+        return histogram;
+    }
+
+    /**
+     * 平均持有锁耗时
+     */
+    public long avgHoldNanos() {
+        long n = releases.sum();
+        return n == 0 ? 0 : totalHoldNanos.sum() / n;
+    }
+
+    /**
+     * 最大持有锁耗时
+     */
+    public long maxHoldNanos() {
+        return maxHoldNanos.get();
+    }
+
+    /**
+     * 清空统计
+     */
+    public void reset() {
+        acquisitions.reset();
+        contended.reset();
+        spins.reset();
+        parks.reset();
+        totalWaitNanos.reset();
+        for (int i = 0; i < BUCKETS; i++) {
+            waitHistogram.set(i, 0);
+        }
+        releases.reset();
+        totalHoldNanos.reset();
+        maxHoldNanos.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[[ acquisitions=%d, contended=%d, spins=%d, parks=%d, parkRatio=%.3f, " +
+                        "avgWait=%dns, p99Wait=%dns, avgHold=%dns, maxHold=%dns ]]",
+                acquisitions(), contended(), spins(), parks(), parkRatio(),
+                avgWaitNanos(), waitPercentileNanos(0.99), avgHoldNanos(), maxHoldNanos());
+    }
+
+    /**
+     * 纳秒数所在的桶
+     */
+    private static int bucket(long nanos) {
+        return nanos <= 0 ? 0 : Math.min(64 - Long.numberOfLeadingZeros(nanos), BUCKETS - 1);
+    }
+}
@@ -1,14 +1,33 @@
 package com.kiligz.concurrent;
 
+import com.sun.management.GarbageCollectionNotificationInfo;
+import lombok.AccessLevel;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
+import lombok.Getter;
 import lombok.NonNull;
 
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
 import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+import static com.sun.management.GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION;
 
 /**
  * 内存安全的LinkedBlockingQueue
@@ -27,13 +46,37 @@ public class MemorySafeLinkedBlockingQueue<E> extends LinkedBlockingQueue<E> {
      */
     private long maxFreeMemory;
 
+    /**
+     * 阻塞模式，内存不足时put、offer(timeout)等待内存释放，否则直接丢弃
+     */
+    private boolean blocking;
+
+    /**
+     * 内存不足时put丢弃的元素数
+     */
+    @Getter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * 内存不足时offer拒绝的元素数
+     */
+    @Getter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    private final LongAdder rejected = new LongAdder();
+
     public MemorySafeLinkedBlockingQueue() {
         this(THE_256_MB);
     }
 
     public MemorySafeLinkedBlockingQueue(int maxFreeMemory) {
+        this(maxFreeMemory, false);
+    }
+
+    public MemorySafeLinkedBlockingQueue(int maxFreeMemory, boolean blocking) {
         super();
         this.maxFreeMemory = maxFreeMemory;
+        this.blocking = blocking;
     }
 
     public MemorySafeLinkedBlockingQueue(Collection<? extends E> c, int maxFreeMemory) {
@@ -49,12 +92,14 @@ public class MemorySafeLinkedBlockingQueue<E> extends LinkedBlockingQueue<E> {
     }
 
     /**
-     * put
+     * put，阻塞模式下等待内存释放，否则内存不足时丢弃
      */
     @Override
     public void put(E e) throws InterruptedException {
-        if (hasRemainedMemory()) {
+        if (hasRemainedMemory() || blocking && Memory.await(maxFreeMemory, Long.MAX_VALUE)) {
             super.put(e);
+        } else {
+            dropped.increment();
         }
     }
 
@@ -63,19 +108,89 @@ public class MemorySafeLinkedBlockingQueue<E> extends LinkedBlockingQueue<E> {
      */
     @Override
     public boolean offer(@NonNull E e) {
-        return hasRemainedMemory() && super.offer(e);
+        if (hasRemainedMemory()) {
+            return super.offer(e);
+        }
+        rejected.increment();
+        return false;
     }
 
     /**
-     * offer
+     * offer，阻塞模式下在超时时间内等待内存释放
      */
     @Override
     public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
-        return hasRemainedMemory() && super.offer(e, timeout, unit);
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        if (hasRemainedMemory() || blocking && Memory.await(maxFreeMemory, unit.toNanos(timeout))) {
+            return super.offer(e, deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+        rejected.increment();
+        return false;
+    }
+
+    /**
+     * take，取出后唤醒等待内存的生产者重新检查
+     */
+    @Override
+    public E take() throws InterruptedException {
+        E e = super.take();
+        Memory.signalFreed();
+        return e;
+    }
+
+    /**
+     * poll
+     */
+    @Override
+    public E poll() {
+        E e = super.poll();
+        if (e != null) {
+            Memory.signalFreed();
+        }
+        return e;
+    }
+
+    /**
+     * poll
+     */
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        E e = super.poll(timeout, unit);
+        if (e != null) {
+            Memory.signalFreed();
+        }
+        return e;
+    }
+
+    /**
+     * drainTo
+     */
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        int n = super.drainTo(c, maxElements);
+        if (n > 0) {
+            Memory.signalFreed();
+        }
+        return n;
+    }
+
+    /**
+     * 内存不足时put丢弃的元素数
+     */
+    public long droppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * 内存不足时offer拒绝的元素数
+     */
+    public long rejectedCount() {
+        return rejected.sum();
     }
 
     /**
      * 可用内存的计算
+     * 可用内存 = 最大堆内存 - 已使用堆内存，每次GC后按GC后的存活对象大小刷新
      */
     public static class Memory {
         /**
@@ -84,21 +199,129 @@ public class MemorySafeLinkedBlockingQueue<E> extends LinkedBlockingQueue<E> {
         private static volatile long maxAvailable;
 
         /**
-         * 单线程的定时线程池
+         * 等待内存释放的锁和条件
+         */
+        private static final ReentrantLock LOCK = new ReentrantLock();
+        private static final Condition FREED = LOCK.newCondition();
+
+        /**
+         * 等待内存释放的线程数
+         */
+        private static volatile int waiters;
+
+        /**
+         * 堆内存池名称，用于从GC信息中统计堆内存使用
+         */
+        private static final Set<String> HEAP_POOL_NAMES = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .map(MemoryPoolMXBean::getName)
+                .collect(Collectors.toSet());
+
+        static {
+            // 加载时立即刷新，之后每次GC后刷新，不支持GC通知时每50ms检查一次
+            refresh();
+            if (!listenGc()) {
+                ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+                scheduler.scheduleWithFixedDelay(Memory::refresh, 50, 50, TimeUnit.MILLISECONDS);
+                Runtime.getRuntime().addShutdownHook(new Thread(scheduler::shutdown));
+            }
+        }
+
+        /**
+         * 监听所有垃圾收集器的GC通知，返回是否监听成功
          */
-        private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor();
+        private static boolean listenGc() {
+            boolean listened = false;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                if (gc instanceof NotificationEmitter) {
+                    ((NotificationEmitter) gc).addNotificationListener(Memory::onGc,
+                            n -> GARBAGE_COLLECTION_NOTIFICATION.equals(n.getType()), null);
+                    listened = true;
+                }
+            }
+            return listened;
+        }
 
-        static { ;
-            // 加载时立即刷新，然后每50ms检查一次
-            SCHEDULER.scheduleWithFixedDelay(Memory::refresh, 0, 50, TimeUnit.MILLISECONDS);
-            Runtime.getRuntime().addShutdownHook(new Thread(SCHEDULER::shutdown));
+        /**
+         * GC后按GC后堆内存池的使用量刷新
+         */
+        private static void onGc(Notification notification, Object handback) {
+            GarbageCollectionNotificationInfo info =
+                    GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+            long used = 0;
+            for (Map.Entry<String, MemoryUsage> entry : info.getGcInfo().getMemoryUsageAfterGc().entrySet()) {
+                if (HEAP_POOL_NAMES.contains(entry.getKey())) {
+                    used += entry.getValue().getUsed();
+                }
+            }
+            refresh(used);
         }
 
         /**
-         * 刷新最大可用内存
+         * 按当前已使用堆内存刷新最大可用内存
          */
         private static void refresh() {
-            maxAvailable = Runtime.getRuntime().freeMemory();
+            maxAvailable = currentAvailable();
+            signalFreed();
+        }
+
+        /**
+         * 刷新最大可用内存，包括还可扩容到-Xmx的部分
+         */
+        private static void refresh(long used) {
+            maxAvailable = maxMemory() - used;
+            signalFreed();
+        }
+
+        /**
+         * 当前可用内存（已使用部分包含未回收的垃圾，偏保守）
+         */
+        private static long currentAvailable() {
+            Runtime runtime = Runtime.getRuntime();
+            return maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        }
+
+        /**
+         * 最大堆内存
+         */
+        private static long maxMemory() {
+            Runtime runtime = Runtime.getRuntime();
+            return runtime.maxMemory() == Long.MAX_VALUE ? runtime.totalMemory() : runtime.maxMemory();
+        }
+
+        /**
+         * 等待可用内存大于limit，返回超时前是否等到
+         */
+        public static boolean await(long limit, long nanos) throws InterruptedException {
+            LOCK.lockInterruptibly();
+            try {
+                waiters++;
+                while (maxAvailable <= limit && currentAvailable() <= limit) {
+                    if (nanos <= 0) {
+                        return false;
+                    }
+                    nanos = FREED.awaitNanos(nanos);
+                }
+                return true;
+            } finally {
+                waiters--;
+                LOCK.unlock();
+            }
+        }
+
+        /**
+         * 唤醒等待内存释放的线程重新检查（GC后或消费者取出元素后）
+         */
+        private static void signalFreed() {
+            if (waiters == 0) {
+                return;
+            }
+            LOCK.lock();
+            try {
+                FREED.signalAll();
+            } finally {
+                LOCK.unlock();
+            }
         }
 
         /**
@@ -0,0 +1,454 @@
+package com.kiligz.concurrent;
+
+import lombok.NonNull;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 无锁的多生产者多消费者有界数组队列
+ * <pre>
+ * 1.每个槽位一个序号，生产者、消费者只CAS各自的下标，无需为每个元素分配节点
+ * 2.生产者下标、消费者下标填充到不同的缓存行，避免伪共享
+ * 3.阻塞操作先自旋，再登记为等待者在Condition上等待，offer、poll成功后有等待者时才加锁唤醒，没有等待者时不加锁
+ * 4.数组长度向上取整为2的幂，容量仍为指定的容量
+ * 5.remove把元素替换为删除标记，出队时跳过，支持ThreadPoolExecutor的remove、purge
+ * </pre>
+ * @see <a href="https://www.1024cores.net/home/lock-free-algorithms/queues/bounded-mpmc-queue">参考</a>
+ *
+ * @author ivan.zhu
+ * @since 2026/10/19
+ */
+@SuppressWarnings("unchecked")
+public class MpmcArrayBlockingQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+    private static final int MAX_SPINS = Runtime.getRuntime().availableProcessors() * 10;
+
+    /**
+     * 已remove、未出队的元素
+     */
+    private static final Object REMOVED = new Object();
+
+    private final int capacity;
+    private final int length;
+    private final int mask;
+    private final AtomicReferenceArray<Object> buffer;
+
+    /**
+     * 槽位序号，等于生产者下标时可写入，等于消费者下标+1时可读取
+     */
+    private final AtomicLongArray sequences;
+
+    /**
+     * 生产者下标
+     */
+    private final PaddedAtomicLong tail = new PaddedAtomicLong();
+
+    /**
+     * 消费者下标
+     */
+    private final PaddedAtomicLong head = new PaddedAtomicLong();
+
+    /**
+     * 已remove、未出队的元素个数
+     */
+    private final AtomicInteger removed = new AtomicInteger();
+
+    /**
+     * 阻塞等待的消费者、生产者
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final AtomicInteger takeWaiters = new AtomicInteger();
+    private final AtomicInteger putWaiters = new AtomicInteger();
+
+    public MpmcArrayBlockingQueue(int capacity) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("illegal capacity: " + capacity);
+        }
+        this.capacity = capacity;
+        this.length = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = length - 1;
+        this.buffer = new AtomicReferenceArray<>(length);
+        this.sequences = new AtomicLongArray(length);
+        for (int i = 0; i < length; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * offer，队列满时返回false
+     */
+    @Override
+    public boolean offer(@NonNull E e) {
+        long pos = tail.get();
+        int index;
+        while (true) {
+            index = (int) (pos & mask);
+            long dif = sequences.get(index) - pos;
+            if (dif == 0) {
+                // 数组长度可能大于容量，按容量判断是否已满
+                if (pos - head.get() >= capacity) {
+                    return false;
+                }
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+                pos = tail.get();
+            } else if (dif < 0) {
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+        buffer.lazySet(index, e);
+        sequences.set(index, pos + 1);
+        signal(takeWaiters, notEmpty);
+        return true;
+    }
+
+    /**
+     * poll，队列空时返回null，跳过已remove的元素
+     */
+    @Override
+    public E poll() {
+        while (true) {
+            long pos = head.get();
+            int index;
+            while (true) {
+                index = (int) (pos & mask);
+                long dif = sequences.get(index) - (pos + 1);
+                if (dif == 0) {
+                    if (head.compareAndSet(pos, pos + 1)) {
+                        break;
+                    }
+                    pos = head.get();
+                } else if (dif < 0) {
+                    return null;
+                } else {
+                    pos = head.get();
+                }
+            }
+            Object e = buffer.getAndSet(index, null);
+            sequences.set(index, pos + length);
+            signal(putWaiters, notFull);
+            if (e != REMOVED) {
+                return (E) e;
+            }
+            removed.decrementAndGet();
+        }
+    }
+
+    /**
+     * peek，并发时只保证返回某一时刻的队首元素，跳过已remove的元素
+     */
+    @Override
+    public E peek() {
+        while (true) {
+            long h = head.get();
+            long t = tail.get();
+            boolean retry = false;
+            for (long pos = h; pos < t; pos++) {
+                int index = (int) (pos & mask);
+                if (sequences.get(index) != pos + 1) {
+                    // 未写完或已被取走
+                    retry = head.get() != h;
+                    break;
+                }
+                Object e = buffer.get(index);
+                if (e == null) {
+                    retry = true;
+                    break;
+                }
+                if (e != REMOVED) {
+                    return (E) e;
+                }
+            }
+            if (!retry) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * 删除一个相等的元素，替换为删除标记，出队时跳过
+     */
+    @Override
+    public boolean remove(Object o) {
+        return remove(o, false);
+    }
+
+    /**
+     * put，队列满时等待
+     */
+    @Override
+    public void put(@NonNull E e) throws InterruptedException {
+        for (int i = 0; i < MAX_SPINS; i++) {
+            if (offer(e)) {
+                return;
+            }
+            Thread.onSpinWait();
+        }
+        lock.lockInterruptibly();
+        putWaiters.incrementAndGet();
+        try {
+            while (!offer(e)) {
+                notFull.await();
+            }
+        } finally {
+            putWaiters.decrementAndGet();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * offer，队列满时在超时时间内等待
+     */
+    @Override
+    public boolean offer(@NonNull E e, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        for (int i = 0; i < MAX_SPINS; i++) {
+            if (offer(e)) {
+                return true;
+            }
+            Thread.onSpinWait();
+        }
+        lock.lockInterruptibly();
+        putWaiters.incrementAndGet();
+        try {
+            while (!offer(e)) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            putWaiters.decrementAndGet();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * take，队列空时等待
+     */
+    @Override
+    public E take() throws InterruptedException {
+        E e;
+        for (int i = 0; i < MAX_SPINS; i++) {
+            if ((e = poll()) != null) {
+                return e;
+            }
+            Thread.onSpinWait();
+        }
+        lock.lockInterruptibly();
+        takeWaiters.incrementAndGet();
+        try {
+            while ((e = poll()) == null) {
+                notEmpty.await();
+            }
+            return e;
+        } finally {
+            takeWaiters.decrementAndGet();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * poll，队列空时在超时时间内等待
+     */
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        E e;
+        for (int i = 0; i < MAX_SPINS; i++) {
+            if ((e = poll()) != null) {
+                return e;
+            }
+            Thread.onSpinWait();
+        }
+        lock.lockInterruptibly();
+        takeWaiters.incrementAndGet();
+        try {
+            while ((e = poll()) == null) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return e;
+        } finally {
+            takeWaiters.decrementAndGet();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 剩余容量
+     */
+    @Override
+    public int remainingCapacity() {
+        return capacity - size();
+    }
+
+    /**
+     * drainTo
+     */
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    /**
+     * drainTo
+     */
+    @Override
+    public int drainTo(@NonNull Collection<? super E> c, int maxElements) {
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        int n = 0;
+        E e;
+        while (n < maxElements && (e = poll()) != null) {
+            c.add(e);
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * 元素个数，不含已remove的元素，并发时为近似值
+     */
+    @Override
+    public int size() {
+        long after = head.get();
+        while (true) {
+            long before = after;
+            long t = tail.get();
+            int r = removed.get();
+            after = head.get();
+            if (before == after) {
+                return (int) Math.max(0, Math.min(t - after - r, capacity));
+            }
+        }
+    }
+
+    /**
+     * 是否为空
+     */
+    @Override
+    public boolean isEmpty() {
+        return peek() == null;
+    }
+
+    /**
+     * 快照迭代器，remove删除迭代到的同一个元素
+     */
+    @Override
+    public Iterator<E> iterator() {
+        List<E> snapshot = new ArrayList<>();
+        long t = tail.get();
+        for (long pos = head.get(); pos < t; pos++) {
+            int index = (int) (pos & mask);
+            Object e = buffer.get(index);
+            if (sequences.get(index) == pos + 1 && e != null && e != REMOVED) {
+                snapshot.add((E) e);
+            }
+        }
+        return new Iterator<>() {
+            private int cursor;
+            private E last;
+
+            @Override
+            public boolean hasNext() {
+                return cursor < snapshot.size();
+            }
+
+            @Override
+            public E next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return last = snapshot.get(cursor++);
+            }
+
+            @Override
+            public void remove() {
+                if (last == null) {
+                    throw new IllegalStateException();
+                }
+                MpmcArrayBlockingQueue.this.remove(last, true);
+                last = null;
+            }
+        };
+    }
+
+    /**
+     * 容量
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * 删除一个元素，identity为true时按引用匹配，否则按equals匹配
+     */
+    private boolean remove(Object o, boolean identity) {
+        if (o == null) {
+            return false;
+        }
+        long t = tail.get();
+        for (long pos = head.get(); pos < t; pos++) {
+            int index = (int) (pos & mask);
+            if (sequences.get(index) != pos + 1) {
+                continue;
+            }
+            Object e = buffer.get(index);
+            if (e == null || e == REMOVED || (identity ? e != o : !o.equals(e))) {
+                continue;
+            }
+            // 与出队的getAndSet竞争，成功时出队的线程会跳过该元素
+            if (buffer.compareAndSet(index, e, REMOVED)) {
+                removed.incrementAndGet();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 有等待者时加锁唤醒一个
+     */
+    private void signal(AtomicInteger waiters, Condition condition) {
+        if (waiters.get() > 0) {
+            lock.lock();
+            try {
+                condition.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 填充到独占缓存行的AtomicLong
+     */
+    @SuppressWarnings("unused")
+    private static class PaddedAtomicLong extends AtomicLong {
+        private static final long serialVersionUID = 1L;
+
+        private long p1, p2, p3, p4, p5, p6, p7;
+    }
+}
@@ -1,16 +1,25 @@
 package com.kiligz.concurrent;
 
+import lombok.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.LockSupport;
 
 /**
  * 可重入的自旋锁，CAS实现
+ * 支持开启性能统计（{@link #enableProfiling}），关闭时只多一次volatile读
+ * 实现{@link Lock}，支持可中断加锁、超时加锁、Condition
  *
  * @author ivan.zhu
  * @since 2024/7/12
  */
-public class ReentrantSpinLock {
+public class ReentrantSpinLock implements Lock {
 //    @jdk.internal.vm.annotation.Contended 解决缓存伪共享问题
     private final AtomicReference<Thread> owner = new AtomicReference<>();
     private final AtomicInteger count = new AtomicInteger(0);
@@ -19,29 +28,203 @@ public class ReentrantSpinLock {
     private static final int MAX_SPINS = Runtime.getRuntime().availableProcessors() * 10;
 
     /**
-     * 加锁
+     * 不限时等待
+     */
+    private static final long NO_TIMEOUT = -1;
+
+    /**
+     * 自旋次数、基础等待时间，可根据性能统计调整
+     */
+    private final int maxSpins;
+    private final int baseDelayNs;
+
+    /**
+     * 性能统计，为null时不统计
+     */
+    private volatile LockProfiler profiler;
+
+    /**
+     * 开启统计时，本次持有锁的开始时间，只有持有者访问
+     */
+    private long acquiredAt;
+
+    public ReentrantSpinLock() {
+        this(MAX_SPINS, BASE_DELAY_NS);
+    }
+
+    public ReentrantSpinLock(int maxSpins, int baseDelayNs) {
+        if (maxSpins < 0 || baseDelayNs <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.maxSpins = maxSpins;
+        this.baseDelayNs = baseDelayNs;
+    }
+
+    /**
+     * 加锁，不响应中断
      */
+    @Override
     public void lock() {
+        acquire(false, NO_TIMEOUT);
+    }
+
+    /**
+     * 加锁，等待时响应中断
+     */
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        if (Thread.interrupted() || !acquire(true, NO_TIMEOUT)) {
+            Thread.interrupted();
+            throw new InterruptedException();
+        }
+    }
+
+    /**
+     * 尝试一次加锁
+     */
+    @Override
+    public boolean tryLock() {
+        if (!tryAcquire()) {
+            return false;
+        }
+        LockProfiler p = profiler;
+        if (p != null && count.get() == 1) {
+            acquiredAt = System.nanoTime();
+            p.acquired(0, 0, 0);
+        }
+        return true;
+    }
+
+    /**
+     * 在超时时间内加锁，等待时响应中断
+     */
+    @Override
+    public boolean tryLock(long time, @NonNull TimeUnit unit) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (acquire(true, Math.max(unit.toNanos(time), 0))) {
+            return true;
+        }
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        return false;
+    }
+
+    /**
+     * 解锁
+     */
+    @Override
+    public void unlock() {
+        Thread current = Thread.currentThread();
+        if (current != owner.get()) {
+            throw new IllegalMonitorStateException("not lock owner");
+        }
+        if (count.decrementAndGet() == 0) {
+            LockProfiler p = profiler;
+            if (p != null && acquiredAt != 0) {
+                p.released(System.nanoTime() - acquiredAt);
+            }
+            acquiredAt = 0;
+            owner.set(null); // 此处无需 CAS，只有持有者线程能调用
+        }
+    }
+
+    /**
+     * 新建Condition，await时先自旋再park
+     */
+    @Override
+    public Condition newCondition() {
+        return new SpinCondition();
+    }
+
+    /**
+     * 开启性能统计，已开启时保留之前的统计
+     */
+    public void enableProfiling() {
+        if (profiler == null) {
+            profiler = new LockProfiler();
+        }
+    }
+
+    /**
+     * 关闭性能统计
+     */
+    public void disableProfiling() {
+        profiler = null;
+    }
+
+    /**
+     * 获取性能统计，未开启时为null
+     */
+    public LockProfiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * 是否被当前线程持有
+     */
+    public boolean isHeldByCurrentThread() {
+        return Thread.currentThread() == owner.get();
+    }
+
+    /**
+     * 当前线程的重入次数，未持有时为0
+     */
+    public int getHoldCount() {
+        return isHeldByCurrentThread() ? count.get() : 0;
+    }
+
+    /**
+     * 自旋、退避直到加锁成功，可中断时被中断返回false，限时时超时返回false
+     * 可中断时不清除中断状态，由调用方处理；不可中断时等待期间清除中断标记，避免park立即返回变成空转，返回前恢复
+     */
+    private boolean acquire(boolean interruptible, long nanos) {
+        LockProfiler p = profiler;
+        boolean timed = nanos != NO_TIMEOUT;
+        long start = p != null || timed ? System.nanoTime() : 0;
         int spins = 0;
-        long delay = BASE_DELAY_NS;
-        while (!tryLock()) {
+        int parks = 0;
+        long delay = baseDelayNs;
+        boolean interrupted = false;
+        while (!tryAcquire()) {
+            if (interruptible && Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+            long remaining = timed ? start + nanos - System.nanoTime() : MAX_DELAY_NS;
+            if (remaining <= 0) {
+                return false;
+            }
             // 阶段1：纯自旋
-            if (spins < MAX_SPINS) {
+            if (spins < maxSpins) {
                 Thread.onSpinWait();
                 spins++;
             }
             // 阶段2：指数退避
             else {
-                LockSupport.parkNanos(delay);
+                LockSupport.parkNanos(this, Math.min(delay, remaining));
+                if (!interruptible) {
+                    interrupted |= Thread.interrupted();
+                }
                 delay = Math.min(delay * 2, MAX_DELAY_NS);
+                parks++;
             }
         }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (p != null && count.get() == 1) {
+            acquiredAt = System.nanoTime();
+            p.acquired(acquiredAt - start, spins, parks);
+        }
+        return true;
     }
 
     /**
-     * 尝试一次加锁
+     * 尝试一次获取锁，已持有时重入
      */
-    public boolean tryLock() {
+    private boolean tryAcquire() {
         Thread current = Thread.currentThread();
         if (current == owner.get()) {
             count.incrementAndGet();
@@ -54,15 +237,163 @@ public class ReentrantSpinLock {
     }
 
     /**
-     * 解锁
+     * 完全释放锁，返回释放前的重入次数
      */
-    public void unlock() {
-        Thread current = Thread.currentThread();
-        if (current != owner.get()) {
+    private int fullyRelease() {
+        if (!isHeldByCurrentThread()) {
             throw new IllegalMonitorStateException("not lock owner");
         }
-        if (count.decrementAndGet() == 0) {
-            owner.set(null); // 此处无需 CAS，只有持有者线程能调用
+        int holds = count.get();
+        count.set(1);
+        unlock();
+        return holds;
+    }
+
+    /**
+     * 重新加锁并恢复重入次数
+     */
+    private void reacquire(int holds) {
+        acquire(false, NO_TIMEOUT);
+        count.set(holds);
+    }
+
+    /**
+     * 自旋锁的Condition，等待队列只在持有锁时访问
+     */
+    private class SpinCondition implements Condition {
+        private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+
+        @Override
+        public void await() throws InterruptedException {
+            await(true, NO_TIMEOUT);
+        }
+
+        @Override
+        public void awaitUninterruptibly() {
+            try {
+                await(false, NO_TIMEOUT);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e); // 不可中断时不会抛出
+            }
+        }
+
+        @Override
+        public long awaitNanos(long nanosTimeout) throws InterruptedException {
+            return await(true, Math.max(nanosTimeout, 0));
+        }
+
+        @Override
+        public boolean await(long time, @NonNull TimeUnit unit) throws InterruptedException {
+            return awaitNanos(unit.toNanos(time)) > 0;
+        }
+
+        @Override
+        public boolean awaitUntil(@NonNull Date deadline) throws InterruptedException {
+            long millis = deadline.getTime() - System.currentTimeMillis();
+            return awaitNanos(TimeUnit.MILLISECONDS.toNanos(millis)) > 0;
+        }
+
+        @Override
+        public void signal() {
+            if (!isHeldByCurrentThread()) {
+                throw new IllegalMonitorStateException("not lock owner");
+            }
+            Waiter waiter = waiters.pollFirst();
+            if (waiter != null) {
+                waiter.wake();
+            }
+        }
+
+        @Override
+        public void signalAll() {
+            if (!isHeldByCurrentThread()) {
+                throw new IllegalMonitorStateException("not lock owner");
+            }
+            Waiter waiter;
+            while ((waiter = waiters.pollFirst()) != null) {
+                waiter.wake();
+            }
+        }
+
+        /**
+         * 释放锁等待signal，先自旋再park，返回剩余等待时间（不限时时为1）
+         * signal前被中断时抛出InterruptedException，signal后被中断则保留中断状态
+         */
+        private long await(boolean interruptible, long nanos) throws InterruptedException {
+            if (interruptible && Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (!isHeldByCurrentThread()) {
+                throw new IllegalMonitorStateException("not lock owner");
+            }
+            boolean timed = nanos != NO_TIMEOUT;
+            long deadline = System.nanoTime() + nanos;
+            Waiter waiter = new Waiter(Thread.currentThread());
+            waiters.addLast(waiter);
+            int holds = fullyRelease();
+
+            boolean interrupted = false;
+            int spins = 0;
+            while (!waiter.signalled) {
+                if (Thread.interrupted()) {
+                    interrupted = true;
+                    if (interruptible) {
+                        break;
+                    }
+                }
+                long remaining = timed ? deadline - System.nanoTime() : Long.MAX_VALUE;
+                if (remaining <= 0) {
+                    break;
+                }
+                // 阶段1：纯自旋
+                if (spins < maxSpins) {
+                    Thread.onSpinWait();
+                    spins++;
+                }
+                // 阶段2：park，等待signal时unpark
+                else if (timed) {
+                    LockSupport.parkNanos(this, remaining);
+                } else {
+                    LockSupport.park(this);
+                }
+            }
+
+            reacquire(holds);
+            if (!waiter.signalled) {
+                waiters.remove(waiter);
+                if (interrupted && interruptible) {
+                    throw new InterruptedException();
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (!timed) {
+                return 1;
+            }
+            // 已被signal时，即使超时也返回正数，避免signal丢失
+            long remaining = deadline - System.nanoTime();
+            return waiter.signalled ? Math.max(remaining, 1) : remaining;
+        }
+    }
+
+    /**
+     * Condition等待者
+     */
+    private static class Waiter {
+        private final Thread thread;
+        private volatile boolean signalled;
+
+        private Waiter(Thread thread) {
+            this.thread = thread;
+        }
+
+        /**
+         * 唤醒
+         */
+        private void wake() {
+            signalled = true;
+            LockSupport.unpark(thread);
         }
     }
 }
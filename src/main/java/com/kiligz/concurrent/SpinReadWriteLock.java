@@ -0,0 +1,202 @@
+package com.kiligz.concurrent;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 自旋读写锁，支持乐观读
+ * <pre>
+ * 1.写锁基于{@link ReentrantSpinLock}，可重入，lock、tryLock、unlock与其用法一致
+ * 2.读锁共享，写锁等待中时新的读锁让步，避免写饥饿；持有写锁的线程可直接获取读锁
+ *   （读锁不可重入，持有读锁时再次获取可能与等待中的写锁死锁）
+ * 3.乐观读不加锁，只读取版本号，读完后校验期间没有写锁，失败再退化为读锁
+ * </pre>
+ * 用法：
+ * <pre>
+ * long stamp = lock.tryOptimisticRead();
+ * long value = field;
+ * if (!lock.validate(stamp)) {
+ *     lock.readLock();
+ *     try {
+ *         value = field;
+ *     } finally {
+ *         lock.readUnlock();
+ *     }
+ * }
+ * </pre>
+ *
+ * @author ivan.zhu
+ * @since 2026/10/19
+ */
+public class SpinReadWriteLock {
+    private static final int BASE_DELAY_NS = 100;    // 基础等待时间 100ns
+    private static final int MAX_DELAY_NS = 100_000; // 最大等待时间 100μs
+    private static final int MAX_SPINS = Runtime.getRuntime().availableProcessors() * 10;
+
+    /**
+     * 无效的乐观读stamp
+     */
+    private static final long INVALID_STAMP = 0;
+
+    /**
+     * 写锁
+     */
+    private final ReentrantSpinLock writeLock = new ReentrantSpinLock();
+
+    /**
+     * 版本号，持有写锁期间为奇数，从2开始，0作为无效stamp
+     */
+    private final AtomicLong version = new AtomicLong(2);
+
+    /**
+     * 持有读锁的数量
+     */
+    private final AtomicInteger readers = new AtomicInteger();
+
+    /**
+     * 加写锁，等待所有读锁释放
+     */
+    public void lock() {
+        writeLock.lock();
+        if (writeLock.getHoldCount() == 1) {
+            version.incrementAndGet();
+            await(() -> readers.get() == 0);
+        }
+    }
+
+    /**
+     * 尝试一次加写锁，有读锁时失败
+     */
+    public boolean tryLock() {
+        if (!writeLock.tryLock()) {
+            return false;
+        }
+        if (writeLock.getHoldCount() > 1) {
+            return true;
+        }
+        version.incrementAndGet();
+        if (readers.get() != 0) {
+            version.incrementAndGet();
+            writeLock.unlock();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 解写锁
+     */
+    public void unlock() {
+        if (writeLock.getHoldCount() == 1) {
+            version.incrementAndGet();
+        }
+        writeLock.unlock();
+    }
+
+    /**
+     * 加读锁，有写锁时等待
+     */
+    public void readLock() {
+        readers.incrementAndGet();
+        if (writeLock.isHeldByCurrentThread()) {
+            return;
+        }
+        while (isWriteLocked()) {
+            // 让出给写锁，等写锁释放后重试
+            readers.decrementAndGet();
+            await(() -> !isWriteLocked());
+            readers.incrementAndGet();
+        }
+    }
+
+    /**
+     * 解读锁
+     */
+    public void readUnlock() {
+        if (readers.getAndDecrement() <= 0) {
+            readers.incrementAndGet();
+            throw new IllegalMonitorStateException("read lock not held");
+        }
+    }
+
+    /**
+     * 乐观读，返回stamp，写锁被持有时返回0
+     */
+    public long tryOptimisticRead() {
+        long v = version.get();
+        return (v & 1) == 0 ? v : INVALID_STAMP;
+    }
+
+    /**
+     * 校验从获取stamp以来没有写锁
+     */
+    public boolean validate(long stamp) {
+        VarHandle.acquireFence();
+        return stamp != INVALID_STAMP && version.get() == stamp;
+    }
+
+    /**
+     * 是否有写锁
+     */
+    public boolean isWriteLocked() {
+        return (version.get() & 1) != 0;
+    }
+
+    /**
+     * 写锁是否被当前线程持有
+     */
+    public boolean isWriteLockedByCurrentThread() {
+        return writeLock.isHeldByCurrentThread();
+    }
+
+    /**
+     * 持有读锁的数量
+     */
+    public int getReadLockCount() {
+        return readers.get();
+    }
+
+    /**
+     * 开启写锁的性能统计
+     */
+    public void enableProfiling() {
+        writeLock.enableProfiling();
+    }
+
+    /**
+     * 关闭写锁的性能统计
+     */
+    public void disableProfiling() {
+        writeLock.disableProfiling();
+    }
+
+    /**
+     * 获取写锁的性能统计，未开启时为null
+     */
+    public LockProfiler getProfiler() {
+        return writeLock.getProfiler();
+    }
+
+    /**
+     * 先自旋，再指数退避park，直到条件满足
+     */
+    private static void await(BooleanSupplier condition) {
+        int spins = 0;
+        long delay = BASE_DELAY_NS;
+        while (!condition.getAsBoolean()) {
+            // 阶段1：纯自旋
+            if (spins < MAX_SPINS) {
+                Thread.onSpinWait();
+                spins++;
+            }
+            // 阶段2：指数退避
+            else {
+                LockSupport.parkNanos(delay);
+                delay = Math.min(delay * 2, MAX_DELAY_NS);
+            }
+        }
+    }
+}
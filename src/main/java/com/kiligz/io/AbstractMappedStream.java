@@ -1,23 +1,78 @@
 package com.kiligz.io;
 
-import com.kiligz.concurrent.ReentrantSpinLock;
+import com.kiligz.concurrent.SpinReadWriteLock;
 import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
 
+import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.zip.CRC32C;
 
 /**
  * 抽象内存映射流
+ * <pre>
+ * 文件格式（版本1）：
+ * 1.文件头24个字节：魔数、版本号、正常关闭时的文件长度（未正常关闭时为0）、concurrent模式的窗口大小（否则为0）
+ * 2.记录：4个字节长度（校验和+内容的字节数，0表示未提交）、4个字节内容的CRC32C、内容
+ *   长度为负的是填充，绝对值为填充的字节数（含长度本身）
+ *   concurrent模式记录不跨窗口，窗口末尾不足4个字节时是隐式填充，不写长度，读取时按窗口大小跳过
+ * 3.未正常关闭时，打开时从头校验，只读取到最后一个完整的记录
+ * 4.非concurrent模式同时写稀疏索引文件（文件名加.idx）：16个字节头（魔数、间隔、正常关闭时的记录数，否则为-1），
+ *   之后每间隔个记录一个8字节的记录位置，第i个为第i*间隔个记录的位置
+ * 没有文件头的是版本0（旧格式）：记录为4个字节内容长度、内容，没有校验和
+ * </pre>
+ * 映射的区域不再使用时立即解除映射（Unsafe.invokeCleaner），不等GC，{@link #metrics}统计映射次数、字节数
+ * 解码出的对象不能引用映射内存，流关闭后不能再读写
  *
  * @author ivan.zhu
  * @since 2024/7/4
  */
+@Slf4j
 public abstract class AbstractMappedStream implements AutoCloseable {
     /**
      * 用4个字节存储bytes数组长度
      */
     protected static final int INT_LENGTH = 4;
 
+    /**
+     * 文件头：魔数、版本号、正常关闭时的文件长度、concurrent模式的窗口大小
+     */
+    protected static final int MAGIC = 0x4B4D4150;
+    protected static final int VERSION = 1;
+    protected static final int HEADER_LENGTH = 24;
+    protected static final int CLOSED_LENGTH_OFFSET = 8;
+    protected static final int WINDOW_SIZE_OFFSET = 16;
+
+    /**
+     * 记录头：长度、CRC32C
+     */
+    protected static final int RECORD_HEADER_LENGTH = 8;
+
+    /**
+     * 索引文件：后缀、魔数、头长度、默认每1024个记录一个索引
+     */
+    protected static final String INDEX_SUFFIX = ".idx";
+    protected static final int INDEX_MAGIC = 0x4B494458;
+    protected static final int INDEX_HEADER_LENGTH = 16;
+    protected static final int INDEX_INTERVAL = 1024;
+
+    private static final ThreadLocal<CRC32C> CRC = ThreadLocal.withInitial(CRC32C::new);
+
+    /**
+     * Unsafe.invokeCleaner，不可用时为null，映射交给GC回收
+     */
+    private static final MethodHandle INVOKE_CLEANER = invokeCleaner();
+
     /**
      * 操作的文件路径
      */
@@ -45,9 +100,217 @@ public abstract class AbstractMappedStream implements AutoCloseable {
     protected MappedByteBuffer mbb;
 
     /**
-     * 可重入自旋锁，因为直接操作内存，所以耗时相对都很短，所以用乐观锁机制
+     * 自旋读写锁，因为直接操作内存，所以耗时相对都很短，所以用乐观锁机制
+     * 读写数据加写锁，只读取位置等元数据时乐观读
+     */
+    protected final SpinReadWriteLock lock = new SpinReadWriteLock();
+
+    /**
+     * 映射统计
+     */
+    protected final Metrics metrics = new Metrics();
+
+    /**
+     * 同时存在的映射字节数上限，默认不限制
+     */
+    protected volatile long maxMappedBytes = Long.MAX_VALUE;
+
+    /**
+     * 获取映射统计
+     */
+    public Metrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * 设置同时存在的映射字节数上限，不能小于ioMappedSize
+     */
+    public void setMaxMappedBytes(long maxMappedBytes) {
+        if (maxMappedBytes < ioMappedSize) {
+            throw new IllegalArgumentException("maxMappedBytes less than ioMappedSize: " + maxMappedBytes);
+        }
+        this.maxMappedBytes = maxMappedBytes;
+    }
+
+    /**
+     * 当前读写位置
+     */
+    public long position() {
+        return optimisticRead(() -> position);
+    }
+
+    /**
+     * 乐观读取元数据，期间有写入时退化为读锁
+     */
+    protected long optimisticRead(LongSupplier supplier) {
+        long stamp = lock.tryOptimisticRead();
+        long value = supplier.getAsLong();
+        if (lock.validate(stamp)) {
+            return value;
+        }
+        lock.readLock();
+        try {
+            return supplier.getAsLong();
+        } finally {
+            lock.readUnlock();
+        }
+    }
+
+    /**
+     * 映射文件的一个区域，计入统计
+     */
+    protected MappedByteBuffer map(FileChannel.MapMode mode, long position, long size) throws IOException {
+        return map(raf.getChannel(), mode, position, size, metrics);
+    }
+
+    /**
+     * 立即解除映射，buffer及其切片之后不能再访问
+     */
+    protected void unmap(MappedByteBuffer buffer) {
+        unmap(buffer, metrics);
+    }
+
+    /**
+     * 映射文件的一个区域，metrics不为null时计入统计
+     */
+    protected static MappedByteBuffer map(FileChannel channel, FileChannel.MapMode mode, long position, long size,
+                                          Metrics metrics) throws IOException {
+        MappedByteBuffer buffer = channel.map(mode, position, size);
+        if (metrics != null) {
+            metrics.mapped(size);
+        }
+        return buffer;
+    }
+
+    /**
+     * 立即解除映射，buffer为null时忽略，只能用于map返回的buffer，不能用于切片、副本
+     */
+    protected static void unmap(MappedByteBuffer buffer, Metrics metrics) {
+        if (buffer == null) {
+            return;
+        }
+        if (metrics != null) {
+            metrics.unmapped(buffer.capacity());
+        }
+        if (INVOKE_CLEANER != null) {
+            try {
+                INVOKE_CLEANER.invokeExact((ByteBuffer) buffer);
+            } catch (Throwable e) {
+                log.warn("unmap failed", e);
+            }
+        }
+    }
+
+    private static MethodHandle invokeCleaner() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            return MethodHandles.lookup()
+                    .findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                    .bindTo(field.get(null));
+        } catch (Exception e) {
+            log.warn("Unsafe.invokeCleaner unavailable, mapped regions are released by GC", e);
+            return null;
+        }
+    }
+
+    /**
+     * buffer中position到limit的CRC32C，不改变position
+     */
+    protected static int crc(ByteBuffer buffer) {
+        CRC32C crc = CRC.get();
+        crc.reset();
+        int position = buffer.position();
+        crc.update(buffer);
+        buffer.position(position);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * 读取文件头，不是版本1及以上的文件时返回null
+     */
+    protected static ByteBuffer readHeader(FileChannel channel) throws IOException {
+        if (channel.size() < HEADER_LENGTH) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        channel.read(header, 0);
+        header.flip();
+        if (header.getInt(0) != MAGIC) {
+            return null;
+        }
+        int version = header.getInt(INT_LENGTH);
+        if (version > VERSION) {
+            throw new IllegalStateException("unsupported version: " + version);
+        }
+        return header;
+    }
+
+    /**
+     * 从from开始逐个校验记录，返回最后一个完整记录的结束位置，跳过concurrent模式窗口末尾的隐式填充
+     * 遇到长度为0（未提交）、超出to、校验和不一致的记录时停止
+     */
+    protected static long scan(FileChannel channel, long from, long to, long mappedSize, long windowSize) throws IOException {
+        mappedSize = Math.min(mappedSize, Integer.MAX_VALUE);
+        long pos = from;
+        long windowStart = from;
+        MappedByteBuffer window = null;
+        try {
+            while (to - (pos = skipWindowTail(pos, windowSize)) >= INT_LENGTH) {
+                if (window == null || pos + INT_LENGTH > windowStart + window.capacity()) {
+                    unmap(window, null);
+                    window = null;
+                    windowStart = pos;
+                    window = channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(mappedSize, to - pos));
+                }
+                int length = window.getInt((int) (pos - windowStart));
+                long size = length < 0 ? -(long) length : (long) length + INT_LENGTH;
+                if (length == 0 || (length > 0 && size < RECORD_HEADER_LENGTH) || size < INT_LENGTH || pos + size > to) {
+                    break;
+                }
+                if (length > 0) {
+                    // 整个记录映射到同一个窗口内再校验
+                    if (pos + size > windowStart + window.capacity()) {
+                        unmap(window, null);
+                        window = null;
+                        windowStart = pos;
+                        window = channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(Math.max(mappedSize, size), to - pos));
+                    }
+                    int offset = (int) (pos - windowStart);
+                    ByteBuffer content = window.duplicate();
+                    content.limit(offset + (int) size).position(offset + RECORD_HEADER_LENGTH);
+                    if (crc(content) != window.getInt(offset + INT_LENGTH)) {
+                        break;
+                    }
+                }
+                pos += size;
+            }
+            return Math.min(pos, to);
+        } finally {
+            unmap(window, null);
+        }
+    }
+
+    /**
+     * concurrent模式窗口末尾不足INT_LENGTH个字节时是隐式填充，返回跳过后的位置，windowSize为0时不跳过
      */
-    protected final ReentrantSpinLock lock = new ReentrantSpinLock();
+    protected static long skipWindowTail(long pos, long windowSize) {
+        if (windowSize > 0) {
+            long remaining = windowSize - pos % windowSize;
+            if (remaining < INT_LENGTH) {
+                return pos + remaining;
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * 文件头中concurrent模式的窗口大小，非concurrent模式为0
+     */
+    protected static long windowSize(ByteBuffer header) {
+        return header.getLong(WINDOW_SIZE_OFFSET);
+    }
 
     /**
      * 默认映射可用内存的10%
@@ -56,4 +319,132 @@ public abstract class AbstractMappedStream implements AutoCloseable {
         long free = Runtime.getRuntime().freeMemory();
         return (long) (free * 0.1);
     }
+
+    /**
+     * 只读取长度，逐个跳过[from, to)内的记录（不含填充），不解码、不校验
+     */
+    protected static class RecordWalker implements AutoCloseable {
+        private final FileChannel channel;
+        private final long to;
+        private final long mappedSize;
+        private final long windowSize;
+        private final Metrics metrics;
+        private MappedByteBuffer window;
+        private long windowStart;
+
+        /**
+         * 当前位置，next返回true后为下一个记录（或填充）的开始位置
+         */
+        @Getter
+        private long position;
+
+        protected RecordWalker(FileChannel channel, long from, long to, long mappedSize, long windowSize, Metrics metrics) {
+            this.channel = channel;
+            this.position = from;
+            this.to = to;
+            this.mappedSize = Math.min(mappedSize, Integer.MAX_VALUE);
+            this.windowSize = windowSize;
+            this.metrics = metrics;
+        }
+
+        /**
+         * 跳过一个记录，没有记录时返回false
+         */
+        protected boolean next() throws IOException {
+            while (to - (position = skipWindowTail(position, windowSize)) >= INT_LENGTH) {
+                if (window == null || position + INT_LENGTH > windowStart + window.capacity()) {
+                    close();
+                    windowStart = position;
+                    window = map(channel, FileChannel.MapMode.READ_ONLY, position, Math.min(mappedSize, to - position), metrics);
+                }
+                int length = window.getInt((int) (position - windowStart));
+                if (length < 0) {
+                    position -= length;
+                    continue;
+                }
+                position += (long) length + INT_LENGTH;
+                return true;
+            }
+            close();
+            return false;
+        }
+
+        /**
+         * 解除当前窗口的映射
+         */
+        @Override
+        public void close() {
+            unmap(window, metrics);
+            window = null;
+        }
+    }
+
+    /**
+     * 映射统计
+     */
+    public static class Metrics {
+        private final LongAdder maps = new LongAdder();
+        private final LongAdder unmaps = new LongAdder();
+        private final AtomicLong mappedBytes = new AtomicLong();
+        private final AtomicLong peakMappedBytes = new AtomicLong();
+        private final LongAdder waits = new LongAdder();
+
+        private void mapped(long size) {
+            maps.increment();
+            peakMappedBytes.accumulateAndGet(mappedBytes.addAndGet(size), Math::max);
+        }
+
+        private void unmapped(long size) {
+            unmaps.increment();
+            mappedBytes.addAndGet(-size);
+        }
+
+        /**
+         * 记录一次因超过映射上限的等待
+         */
+        protected void waited() {
+            waits.increment();
+        }
+
+        /**
+         * 映射次数
+         */
+        public long maps() {
+            return maps.sum();
+        }
+
+        /**
+         * 解除映射次数
+         */
+        public long unmaps() {
+            return unmaps.sum();
+        }
+
+        /**
+         * 当前映射的字节数
+         */
+        public long mappedBytes() {
+            return mappedBytes.get();
+        }
+
+        /**
+         * 同时映射的最大字节数
+         */
+        public long peakMappedBytes() {
+            return peakMappedBytes.get();
+        }
+
+        /**
+         * 因超过映射上限等待的次数
+         */
+        public long waits() {
+            return waits.sum();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("[[ maps=%d, unmaps=%d, mappedBytes=%d, peakMappedBytes=%d, waits=%d ]]",
+                    maps(), unmaps(), mappedBytes(), peakMappedBytes(), waits());
+        }
+    }
 }
@@ -0,0 +1,32 @@
+package com.kiligz.io;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 对象编解码器，直接读写ByteBuffer，用于内存映射流
+ * 内置实现见{@link Codecs}
+ *
+ * @author ivan.zhu
+ * @since 2026/10/19
+ */
+public interface Codec<T> {
+    /**
+     * 从buffer的position开始写入编码后的字节
+     * 空间不足时抛出{@link java.nio.BufferOverflowException}，由调用方扩容后从原position重试
+     */
+    void encode(T t, ByteBuffer buffer);
+
+    /**
+     * 从buffer的position开始解码
+     * 变长时buffer为只包含该对象的切片，读到limit为止；定长时只读取fixedSize个字节
+     * buffer是映射内存，之后会被解除映射，返回的对象不能引用buffer
+     */
+    T decode(ByteBuffer buffer);
+
+    /**
+     * 编码后的固定字节数，变长时为-1
+     */
+    default int fixedSize() {
+        return -1;
+    }
+}
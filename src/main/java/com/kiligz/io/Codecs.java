@@ -0,0 +1,385 @@
+package com.kiligz.io;
+
+import com.google.common.collect.Maps;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 内置编解码器
+ * <pre>
+ * 1.字符串（UTF-8）、基本类型及包装类、byte数组，直接读写ByteBuffer
+ * 2.POJO，基于reflectasm生成的访问器逐个字段编码，不写类描述
+ * 3.java序列化，兜底，每个对象都会写入完整的类描述，体积大、速度慢
+ * </pre>
+ *
+ * @author ivan.zhu
+ * @since 2026/10/19
+ */
+@SuppressWarnings("unchecked")
+public class Codecs {
+    private static final Codec<String> STRING = new StringCodec();
+    private static final Codec<byte[]> BYTES = new BytesCodec();
+    private static final Codec<Object> SERIALIZABLE = new SerializableCodec();
+
+    private static final Codec<Integer> INT = new FixedCodec<>(Integer.BYTES) {
+        @Override
+        public void encode(Integer value, ByteBuffer buffer) {
+            buffer.putInt(value);
+        }
+
+        @Override
+        public Integer decode(ByteBuffer buffer) {
+            return buffer.getInt();
+        }
+    };
+
+    private static final Codec<Long> LONG = new FixedCodec<>(Long.BYTES) {
+        @Override
+        public void encode(Long value, ByteBuffer buffer) {
+            buffer.putLong(value);
+        }
+
+        @Override
+        public Long decode(ByteBuffer buffer) {
+            return buffer.getLong();
+        }
+    };
+
+    private static final Codec<Double> DOUBLE = new FixedCodec<>(Double.BYTES) {
+        @Override
+        public void encode(Double value, ByteBuffer buffer) {
+            buffer.putDouble(value);
+        }
+
+        @Override
+        public Double decode(ByteBuffer buffer) {
+            return buffer.getDouble();
+        }
+    };
+
+    private static final Codec<Float> FLOAT = new FixedCodec<>(Float.BYTES) {
+        @Override
+        public void encode(Float value, ByteBuffer buffer) {
+            buffer.putFloat(value);
+        }
+
+        @Override
+        public Float decode(ByteBuffer buffer) {
+            return buffer.getFloat();
+        }
+    };
+
+    private static final Codec<Short> SHORT = new FixedCodec<>(Short.BYTES) {
+        @Override
+        public void encode(Short value, ByteBuffer buffer) {
+            buffer.putShort(value);
+        }
+
+        @Override
+        public Short decode(ByteBuffer buffer) {
+            return buffer.getShort();
+        }
+    };
+
+    private static final Codec<Character> CHAR = new FixedCodec<>(Character.BYTES) {
+        @Override
+        public void encode(Character value, ByteBuffer buffer) {
+            buffer.putChar(value);
+        }
+
+        @Override
+        public Character decode(ByteBuffer buffer) {
+            return buffer.getChar();
+        }
+    };
+
+    private static final Codec<Byte> BYTE = new FixedCodec<>(Byte.BYTES) {
+        @Override
+        public void encode(Byte value, ByteBuffer buffer) {
+            buffer.put(value);
+        }
+
+        @Override
+        public Byte decode(ByteBuffer buffer) {
+            return buffer.get();
+        }
+    };
+
+    private static final Codec<Boolean> BOOLEAN = new FixedCodec<>(Byte.BYTES) {
+        @Override
+        public void encode(Boolean value, ByteBuffer buffer) {
+            buffer.put(value ? (byte) 1 : 0);
+        }
+
+        @Override
+        public Boolean decode(ByteBuffer buffer) {
+            return buffer.get() != 0;
+        }
+    };
+
+    /**
+     * 类型 -> 编解码器缓存
+     */
+    private static final ConcurrentMap<Class<?>, Codec<?>> CODEC_MAP = Maps.newConcurrentMap();
+
+    static {
+        register(STRING, String.class);
+        register(BYTES, byte[].class);
+        register(INT, Integer.class, int.class);
+        register(LONG, Long.class, long.class);
+        register(DOUBLE, Double.class, double.class);
+        register(FLOAT, Float.class, float.class);
+        register(SHORT, Short.class, short.class);
+        register(CHAR, Character.class, char.class);
+        register(BYTE, Byte.class, byte.class);
+        register(BOOLEAN, Boolean.class, boolean.class);
+    }
+
+    public static Codec<String> string() {
+        return STRING;
+    }
+
+    public static Codec<byte[]> bytes() {
+        return BYTES;
+    }
+
+    public static Codec<Integer> ints() {
+        return INT;
+    }
+
+    public static Codec<Long> longs() {
+        return LONG;
+    }
+
+    public static Codec<Double> doubles() {
+        return DOUBLE;
+    }
+
+    /**
+     * java序列化
+     */
+    public static <T> Codec<T> serializable() {
+        return (Codec<T>) SERIALIZABLE;
+    }
+
+    /**
+     * POJO编解码器，需要public无参构造器，字段public或有public的getter、setter，非final
+     * 字段按声明类型编码，值为声明类型的子类时抛出IllegalArgumentException，不支持循环引用
+     * 字段按类层次从父类到子类、同一个类内按字段名排序编码，与getDeclaredFields的顺序无关
+     */
+    public static <T> Codec<T> pojo(Class<T> clazz) {
+        Codec<?> codec = CODEC_MAP.get(clazz);
+        if (codec == null) {
+            codec = new PojoCodec<>(clazz);
+            Codec<?> existing = CODEC_MAP.putIfAbsent(clazz, codec);
+            codec = existing != null ? existing : codec;
+        }
+        return (Codec<T>) codec;
+    }
+
+    /**
+     * 按类型选择编解码器：内置类型 > 枚举 > POJO > java序列化
+     * 接口、抽象类、java自带类型实际类型不确定，非public类访问不了，用java序列化
+     */
+    public static <T> Codec<T> forClass(Class<T> clazz) {
+        Codec<?> codec = CODEC_MAP.get(clazz);
+        if (codec != null) {
+            return (Codec<T>) codec;
+        }
+        if (clazz.isEnum()) {
+            codec = enumCodec(clazz);
+        } else if (isPojoCandidate(clazz)) {
+            try {
+                return pojo(clazz);
+            } catch (RuntimeException e) {
+                if (!Serializable.class.isAssignableFrom(clazz)) {
+                    throw e;
+                }
+                codec = SERIALIZABLE;
+            }
+        } else {
+            codec = SERIALIZABLE;
+        }
+        Codec<?> existing = CODEC_MAP.putIfAbsent(clazz, codec);
+        return (Codec<T>) (existing != null ? existing : codec);
+    }
+
+    /**
+     * 枚举编解码器，调用前已判断clazz为枚举
+     */
+    @SuppressWarnings("unchecked")
+    private static <E extends Enum<E>> Codec<E> enumCodec(Class<?> clazz) {
+        return new EnumCodec<>((Class<E>) clazz);
+    }
+
+    private static void register(Codec<?> codec, Class<?>... classes) {
+        for (Class<?> clazz : classes) {
+            CODEC_MAP.put(clazz, codec);
+        }
+    }
+
+    private static boolean isPojoCandidate(Class<?> clazz) {
+        int modifiers = clazz.getModifiers();
+        return !clazz.isInterface() && !clazz.isArray() && !clazz.isPrimitive()
+                && Modifier.isPublic(modifiers) && !Modifier.isAbstract(modifiers)
+                && !clazz.getName().startsWith("java.");
+    }
+
+    /**
+     * 定长编解码器
+     */
+    private abstract static class FixedCodec<T> implements Codec<T> {
+        private final int size;
+
+        private FixedCodec(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public int fixedSize() {
+            return size;
+        }
+    }
+
+    /**
+     * UTF-8字符串，逐个字符写入buffer，不生成中间byte数组
+     */
+    private static class StringCodec implements Codec<String> {
+        @Override
+        public void encode(String s, ByteBuffer buffer) {
+            int length = s.length();
+            for (int i = 0; i < length; i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    buffer.put((byte) c);
+                } else if (c < 0x800) {
+                    buffer.put((byte) (0xC0 | c >> 6));
+                    buffer.put((byte) (0x80 | c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < length
+                        && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    buffer.put((byte) (0xF0 | cp >> 18));
+                    buffer.put((byte) (0x80 | cp >> 12 & 0x3F));
+                    buffer.put((byte) (0x80 | cp >> 6 & 0x3F));
+                    buffer.put((byte) (0x80 | cp & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    // 不成对的代理字符，与String.getBytes一致替换为'?'
+                    buffer.put((byte) '?');
+                } else {
+                    buffer.put((byte) (0xE0 | c >> 12));
+                    buffer.put((byte) (0x80 | c >> 6 & 0x3F));
+                    buffer.put((byte) (0x80 | c & 0x3F));
+                }
+            }
+        }
+
+        @Override
+        public String decode(ByteBuffer buffer) {
+            int length = buffer.remaining();
+            if (buffer.hasArray()) {
+                String s = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+                        StandardCharsets.UTF_8);
+                buffer.position(buffer.limit());
+                return s;
+            }
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * byte数组，原样写入
+     */
+    private static class BytesCodec implements Codec<byte[]> {
+        @Override
+        public void encode(byte[] bytes, ByteBuffer buffer) {
+            buffer.put(bytes);
+        }
+
+        @Override
+        public byte[] decode(ByteBuffer buffer) {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            return bytes;
+        }
+    }
+
+    /**
+     * 枚举，按名称编码，调整枚举顺序不影响已写入的数据
+     */
+    private static class EnumCodec<E extends Enum<E>> implements Codec<E> {
+        private final Class<E> clazz;
+
+        private EnumCodec(Class<E> clazz) {
+            this.clazz = clazz;
+        }
+
+        @Override
+        public void encode(E e, ByteBuffer buffer) {
+            STRING.encode(e.name(), buffer);
+        }
+
+        @Override
+        public E decode(ByteBuffer buffer) {
+            return Enum.valueOf(clazz, STRING.decode(buffer));
+        }
+    }
+
+    /**
+     * java序列化，直接写入、读取buffer
+     */
+    private static class SerializableCodec implements Codec<Object> {
+        @Override
+        public void encode(Object obj, ByteBuffer buffer) {
+            try (ObjectOutputStream oos = new ObjectOutputStream(new OutputStream() {
+                @Override
+                public void write(int b) {
+                    buffer.put((byte) b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    buffer.put(b, off, len);
+                }
+            })) {
+                oos.writeObject(obj);
+            } catch (IOException e) {
+                throw new RuntimeException("序列化失败", e);
+            }
+        }
+
+        @Override
+        public Object decode(ByteBuffer buffer) {
+            try (ObjectInputStream ois = new ObjectInputStream(new InputStream() {
+                @Override
+                public int read() {
+                    return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    if (!buffer.hasRemaining()) {
+                        return -1;
+                    }
+                    int n = Math.min(len, buffer.remaining());
+                    buffer.get(b, off, n);
+                    return n;
+                }
+            })) {
+                return ois.readObject();
+            } catch (IOException | ClassNotFoundException e) {
+                throw new RuntimeException("反序列化失败", e);
+            }
+        }
+    }
+}
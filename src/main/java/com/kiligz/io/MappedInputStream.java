@@ -2,17 +2,42 @@ package com.kiligz.io;
 
 import lombok.extern.slf4j.Slf4j;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * 线程安全的内存映射输入流
+ * 对象用{@link Codec}直接从映射内存的切片解码，需与写入时的编解码器一致，默认java序列化
+ * 跳过{@link MappedOutputStream}concurrent模式写入的填充
+ * 文件格式见{@link AbstractMappedStream}，读取时校验CRC32C，未正常关闭的文件只读取到最后一个完整的记录
+ * 兼容没有文件头的旧格式文件
+ * 有索引文件时{@link #seek}、{@link #count}从最近的索引开始跳过记录，不解码，没有时从头跳过
+ * {@link #parallelStream}按记录边界把文件拆分成多段，每个线程映射、解码自己的段
+ * {@link #iterator}、{@link #stream}、{@link #forEach}按ioMappedSize分窗口惰性读取，支持超过2GB的文件
+ * {@link #poll}、{@link #take}尾随正在写入的文件，读完后等待写入方提交新的记录，可作为进程间的本地队列
  *
  * @author Ivan
  * @since 2024/7/3
@@ -20,19 +45,74 @@ import java.util.concurrent.atomic.AtomicReference;
 @Slf4j
 @SuppressWarnings("all")
 public class MappedInputStream<T> extends AbstractMappedStream {
+    /**
+     * 尾随时park的时间，没有新记录时从最小值逐步翻倍到最大值
+     */
+    private static final long MIN_PARK_NANOS = 1_000;
+    private static final long MAX_PARK_NANOS = 1_000_000;
+
     private final AtomicReference<T> peekReference = new AtomicReference<>();
     private long fileRemainSize;
+    private final Codec<T> codec;
+
+    /**
+     * 记录开始位置、有效记录的结束位置
+     */
+    private long dataStart;
+    private long dataEnd;
+
+    /**
+     * 是否有校验和，旧格式没有
+     */
+    private boolean checksum;
+
+    /**
+     * concurrent模式写入的窗口大小，用于跳过窗口末尾的隐式填充，其他为0
+     */
+    private long windowSize;
+
+    /**
+     * 索引：第i个为第i*indexInterval个记录的位置，只保留有效记录内的
+     * indexedCount为正常关闭时的记录数，未知时为-1
+     */
+    private long[] indexOffsets = new long[0];
+    private int indexInterval = INDEX_INTERVAL;
+    private long indexedCount = -1;
+
+    /**
+     * 还有拆分没有遍历完的{@link #spliterator}遍历，关闭时解除它们的窗口
+     */
+    private final Set<Traversal> traversals = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 尾随时读取长度、文件头的缓冲区
+     */
+    private final ByteBuffer followBuffer = ByteBuffer.allocate(Long.BYTES);
+
+    /**
+     * 尾随时读取整个记录校验的缓冲区，不够时扩容
+     */
+    private ByteBuffer followRecord = ByteBuffer.allocate(1024);
 
     public MappedInputStream(String filePath) {
         this(filePath, defaultMappedSize());
     }
 
     public MappedInputStream(String filePath, long ioMappedSize) {
+        this(filePath, ioMappedSize, Codecs.serializable());
+    }
+
+    public MappedInputStream(String filePath, Codec<T> codec) {
+        this(filePath, defaultMappedSize(), codec);
+    }
+
+    public MappedInputStream(String filePath, long ioMappedSize, Codec<T> codec) {
         this.filePath = filePath;
         this.ioMappedSize = ioMappedSize;
+        this.codec = codec;
         try {
             this.raf = new RandomAccessFile(filePath, "r");
-            this.fileRemainSize = raf.getChannel().size();
+            open();
             resetMbb();
         } catch (IOException e) {
             throw new RuntimeException("读取文件失败", e);
@@ -55,10 +135,20 @@ public class MappedInputStream<T> extends AbstractMappedStream {
     }
 
     /**
-     * 是否还有元素
+     * 是否还有元素，已读完时不加锁直接返回
      */
     public boolean hasNext() {
-        return peek() != null;
+        if (peekReference.get() != null) {
+            return true;
+        }
+        return remainingSize() > 0 && peek() != null;
+    }
+
+    /**
+     * 文件剩余未读取的字节数
+     */
+    public long remainingSize() {
+        return optimisticRead(() -> fileRemainSize);
     }
 
     /**
@@ -67,25 +157,7 @@ public class MappedInputStream<T> extends AbstractMappedStream {
     private T readObject() {
         lock.lock();
         try {
-            if (!mbb.hasRemaining() && fileRemainSize == 0) {
-                return null;
-            }
-            int remaining = mbb.remaining();
-            if (remaining <= INT_LENGTH) {
-                resetMbb();
-                return readObject();
-            }
-            int byteSize = mbb.getInt();
-            int size = byteSize + INT_LENGTH;
-            if (size > remaining) {
-                resetMbb();
-                return readObject();
-            }
-            byte[] bytes = new byte[byteSize];
-            mbb.get(bytes);
-            position += size;
-            fileRemainSize -= size;
-            return getObj(bytes);
+            return nextRecord();
         } catch (Exception e) {
             throw new RuntimeException("读取文件失败", e);
         } finally {
@@ -102,38 +174,374 @@ public class MappedInputStream<T> extends AbstractMappedStream {
             return list;
         }
         try {
-            T t = peekReference.getAndSet(null);
+            drain(list::add);
+            return list;
+        } catch (Exception e) {
+            throw new RuntimeException("读取文件失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 逐个读取剩下所有元素并处理，按ioMappedSize分窗口映射，不缓存所有元素
+     * 期间持有锁，action中不要读取同一个流
+     */
+    public void forEach(Consumer<? super T> action) {
+        lock.lock();
+        try {
+            drain(action);
+        } catch (IOException e) {
+            throw new RuntimeException("读取文件失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 剩下元素的迭代器，每次next读取一个对象，与{@link #read}共享读取位置
+     */
+    public Iterator<T> iterator() {
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return MappedInputStream.this.hasNext();
+            }
+
+            @Override
+            public T next() {
+                T t = read();
+                if (t == null) {
+                    throw new NoSuchElementException();
+                }
+                return t;
+            }
+        };
+    }
+
+    /**
+     * 剩下元素的顺序流，惰性读取，与{@link #read}共享读取位置
+     */
+    public Stream<T> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator(),
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * 尾随读取一个对象，没有时等待写入方提交新的记录
+     * 超时、写入方已关闭且已读完时返回null，只支持有文件头的文件
+     */
+    public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return tail(unit.toNanos(timeout), true);
+    }
+
+    /**
+     * 尾随读取一个对象，一直等待直到写入方提交新的记录，写入方已关闭且已读完时返回null
+     */
+    public T take() throws InterruptedException {
+        return tail(0, false);
+    }
+
+    /**
+     * 尾随读取，没有新记录时park，等待时间逐步翻倍，有新记录时重置
+     */
+    private T tail(long nanos, boolean timed) throws InterruptedException {
+        if (!checksum) {
+            throw new UnsupportedOperationException("tail requires file header: " + filePath);
+        }
+        long deadline = timed ? System.nanoTime() + nanos : 0;
+        long parkNanos = MIN_PARK_NANOS;
+        while (true) {
+            T t = read();
             if (t != null) {
-                list.add(t);
+                return t;
+            }
+            long followed = follow();
+            if (followed < 0) {
+                return null;
             }
-            mbb = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, position, fileRemainSize);
-            while (true) {
-                if (!mbb.hasRemaining()) {
+            if (followed > 0) {
+                parkNanos = MIN_PARK_NANOS;
+                continue;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            long park = parkNanos;
+            if (timed) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return null;
+                }
+                park = Math.min(park, remaining);
+            }
+            LockSupport.parkNanos(this, park);
+            parkNanos = Math.min(parkNanos * 2, MAX_PARK_NANOS);
+        }
+    }
+
+    /**
+     * 从有效记录的结束位置开始跳过新提交的记录（长度不为0），扩展有效记录的结束位置
+     * 返回新提交的字节数，写入方已关闭且已读完时返回-1
+     * 用positional read读取，不映射未提交的区域，写入方关闭时截断文件也不会访问到文件之外
+     * 与{@link #scan}一致，记录读取整个记录校验CRC32C，填充重复读取长度直到两次一致，不通过时停止，下次再尾随
+     */
+    private long follow() {
+        lock.lock();
+        try {
+            FileChannel channel = raf.getChannel();
+            followBuffer.clear();
+            channel.read(followBuffer, CLOSED_LENGTH_OFFSET);
+            long closedLength = followBuffer.getLong(0);
+            long to = closedLength != 0 ? closedLength : channel.size();
+            long from = dataEnd;
+            while (to - skipWindowTail(dataEnd, windowSize) >= INT_LENGTH) {
+                dataEnd = skipWindowTail(dataEnd, windowSize);
+                followBuffer.clear().limit(INT_LENGTH);
+                if (channel.read(followBuffer, dataEnd) < INT_LENGTH) {
+                    break;
+                }
+                int length = followBuffer.getInt(0);
+                if (length < 0) {
+                    // 填充长度可能还在写入，读到两次一致为止
+                    int previous;
+                    do {
+                        previous = length;
+                        followBuffer.clear().limit(INT_LENGTH);
+                        if (channel.read(followBuffer, dataEnd) < INT_LENGTH) {
+                            break;
+                        }
+                        length = followBuffer.getInt(0);
+                    } while (length != previous);
+                    if (length != previous) {
+                        break;
+                    }
+                }
+                long size = length < 0 ? -(long) length : (long) length + INT_LENGTH;
+                if (length == 0 || (length > 0 && size < RECORD_HEADER_LENGTH) || size < INT_LENGTH
+                        || size > Integer.MAX_VALUE || dataEnd + size > to) {
+                    break;
+                }
+                if (length > 0 && !verifyRecord(channel, dataEnd, (int) size)) {
                     break;
                 }
-                int byteSize = mbb.getInt();
-                byte[] bytes = new byte[byteSize];
-                mbb.get(bytes);
-                list.add(getObj(bytes));
+                dataEnd += size;
             }
-            position += fileRemainSize;
-            fileRemainSize = 0;
-            return list;
-        } catch (Exception e) {
+            fileRemainSize += dataEnd - from;
+            if (dataEnd > from) {
+                return dataEnd - from;
+            }
+            return closedLength != 0 && dataEnd >= closedLength ? -1 : 0;
+        } catch (IOException e) {
             throw new RuntimeException("读取文件失败", e);
         } finally {
             lock.unlock();
         }
     }
 
+    /**
+     * 读取pos开始的整个记录，长度未变且校验和一致时返回true
+     */
+    private boolean verifyRecord(FileChannel channel, long pos, int size) throws IOException {
+        if (followRecord.capacity() < size) {
+            followRecord = ByteBuffer.allocate(Math.max(size, followRecord.capacity() * 2));
+        }
+        ByteBuffer record = followRecord;
+        record.clear().limit(size);
+        if (!readFully(channel, record, pos)) {
+            return false;
+        }
+        if (record.getInt(0) != size - INT_LENGTH) {
+            return false;
+        }
+        int expected = record.getInt(INT_LENGTH);
+        record.flip().position(RECORD_HEADER_LENGTH);
+        return crc(record) == expected;
+    }
+
+    /**
+     * 跳转到第recordNumber个记录（从0开始），从最近的索引跳过记录，不解码
+     * 返回该记录是否存在，不存在时跳到末尾
+     */
+    public boolean seek(long recordNumber) {
+        if (recordNumber < 0) {
+            throw new IllegalArgumentException("recordNumber must not be negative: " + recordNumber);
+        }
+        lock.lock();
+        try {
+            int i = (int) Math.min(recordNumber / indexInterval, indexOffsets.length - 1);
+            long number = i < 0 ? 0 : (long) i * indexInterval;
+            long start;
+            boolean found;
+            try (RecordWalker walker = walker(i)) {
+                while (number < recordNumber && walker.next()) {
+                    number++;
+                }
+                // 目标记录（或其之前的填充）的开始位置，再跳过一个确认记录存在
+                start = walker.getPosition();
+                found = number == recordNumber && walker.next();
+            }
+            position = found ? start : dataEnd;
+            fileRemainSize = dataEnd - position;
+            peekReference.set(null);
+            resetMbb();
+            return found;
+        } catch (IOException e) {
+            throw new RuntimeException("读取文件失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 读取位置为offset的记录（{@link MappedOutputStream#write}的返回值），不影响当前读取位置
+     * 用positional read读取到堆内缓冲区，不映射，有效记录内的内容不再变化，读取时不加锁
+     */
+    public T readAt(long offset) {
+        long end = optimisticRead(() -> dataEnd);
+        if (offset < dataStart || offset + INT_LENGTH > end) {
+            throw new IllegalArgumentException("offset out of range: " + offset);
+        }
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer lengthBuffer = ByteBuffer.allocate(INT_LENGTH);
+            if (!readFully(channel, lengthBuffer, offset)) {
+                throw new IllegalArgumentException("no record at offset: " + offset);
+            }
+            int length = lengthBuffer.getInt(0);
+            if (length < (checksum ? INT_LENGTH : 0) || offset + INT_LENGTH + length > end) {
+                throw new IllegalArgumentException("no record at offset: " + offset);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            if (!readFully(channel, buffer, offset + INT_LENGTH)) {
+                throw new IllegalArgumentException("no record at offset: " + offset);
+            }
+            return decodeRecord(buffer.flip(), length);
+        } catch (IOException e) {
+            throw new RuntimeException("读取文件失败", e);
+        }
+    }
+
+    /**
+     * 从pos开始读满buffer的剩余空间，读到文件末尾时返回false
+     */
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long pos) throws IOException {
+        long start = pos - buffer.position();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 记录总数，正常关闭且有索引时直接返回，否则从最后一个索引开始跳过记录计数，不解码
+     */
+    public long count() {
+        if (indexedCount >= 0) {
+            return indexedCount;
+        }
+        try {
+            int i = indexOffsets.length - 1;
+            long count = i < 0 ? 0 : (long) i * indexInterval;
+            try (RecordWalker walker = walker(i)) {
+                while (walker.next()) {
+                    count++;
+                }
+            }
+            return count;
+        } catch (IOException e) {
+            throw new RuntimeException("读取文件失败", e);
+        }
+    }
+
+    /**
+     * 并行读取所有有效记录，不影响当前读取位置，需要在流处理完后再关闭输入流
+     * findFirst、limit等提前结束时各拆分的窗口仍在映射，需要用try-with-resources关闭流，关闭时解除映射
+     * 编解码器需要线程安全
+     */
+    public Stream<T> parallelStream() {
+        RecordSpliterator spliterator = recordSpliterator();
+        return StreamSupport.stream(spliterator, true).onClose(spliterator::close);
+    }
+
+    /**
+     * 所有有效记录的可拆分迭代器，按记录边界（索引位置，没有索引时跳过记录得到）对半拆分，不影响当前读取位置
+     * 遍历完时解除映射，没有遍历完时窗口一直映射到输入流关闭，需要提前结束时用{@link #parallelStream}并关闭流
+     * 记录数已知（正常关闭的文件有索引，或没有索引时跳过了所有记录）时为SIZED，estimateSize为准确的剩余记录数
+     */
+    public Spliterator<T> spliterator() {
+        return recordSpliterator();
+    }
+
+    private RecordSpliterator recordSpliterator() {
+        try {
+            Traversal traversal = traversal();
+            return new RecordSpliterator(traversal, 0, traversal.bounds.length - 1);
+        } catch (IOException e) {
+            throw new RuntimeException("读取文件失败", e);
+        }
+    }
+
+    /**
+     * 拆分边界：首尾为有效记录的开始、结束位置，中间每indexInterval个记录一个，及记录总数
+     */
+    private Traversal traversal() throws IOException {
+        long[] bounds;
+        long total;
+        if (indexOffsets.length > 0) {
+            bounds = Arrays.copyOf(indexOffsets, indexOffsets.length + 1);
+            total = indexedCount;
+        } else {
+            List<Long> list = new ArrayList<>();
+            list.add(dataStart);
+            long number = 0;
+            try (RecordWalker walker = walker(-1)) {
+                while (walker.next()) {
+                    if (++number % indexInterval == 0) {
+                        list.add(walker.getPosition());
+                    }
+                }
+            }
+            list.add(dataEnd);
+            bounds = list.stream().mapToLong(Long::longValue).toArray();
+            total = number;
+        }
+        bounds[0] = dataStart;
+        bounds[bounds.length - 1] = dataEnd;
+        Traversal traversal = new Traversal(bounds, total);
+        traversals.add(traversal);
+        return traversal;
+    }
+
+    /**
+     * 解除一次遍历中所有拆分没有遍历完的窗口，此时没有线程在遍历
+     */
+    private void close(Traversal traversal) {
+        traversals.remove(traversal);
+        RecordSpliterator spliterator;
+        while ((spliterator = traversal.open.poll()) != null) {
+            unmap(spliterator.window);
+            spliterator.window = null;
+        }
+    }
+
+    /**
+     * 从第i个索引（小于0时从头）开始跳过记录
+     */
+    private RecordWalker walker(int i) {
+        return new RecordWalker(raf.getChannel(), i < 0 ? dataStart : indexOffsets[i], dataEnd, ioMappedSize, windowSize, metrics);
+    }
+
     /**
      * 重新从头开始读取
      */
     public void reset() {
         lock.lock();
         try {
-            position = 0;
-            fileRemainSize = raf.getChannel().size();
+            position = dataStart;
+            fileRemainSize = dataEnd - dataStart;
             peekReference.set(null);
             resetMbb();
         } catch (IOException e) {
@@ -144,32 +552,309 @@ public class MappedInputStream<T> extends AbstractMappedStream {
     }
 
     /**
-     * 关闭输入流
+     * 关闭输入流，解除映射
      */
     @Override
     public void close() {
+        lock.lock();
         try {
+            traversals.forEach(this::close);
+            unmap(mbb);
+            mbb = null;
             raf.close();
         } catch (IOException e) {
             throw new RuntimeException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 读取文件头，未正常关闭时校验出有效记录的结束位置
+     */
+    private void open() throws IOException {
+        FileChannel channel = raf.getChannel();
+        long size = channel.size();
+        ByteBuffer header = readHeader(channel);
+        if (header == null) {
+            dataStart = 0;
+            dataEnd = size;
+            checksum = false;
+        } else {
+            dataStart = HEADER_LENGTH;
+            windowSize = windowSize(header);
+            dataEnd = header.getLong(CLOSED_LENGTH_OFFSET) == size ? size : scan(channel, HEADER_LENGTH, size, ioMappedSize, windowSize);
+            checksum = true;
+            if (dataEnd < size) {
+                log.warn("{} not closed normally, read until {} of {}", filePath, dataEnd, size);
+            }
+            readIndex(dataEnd == size);
+        }
+        position = dataStart;
+        fileRemainSize = dataEnd - dataStart;
+    }
+
+    /**
+     * 读取索引文件，只保留有效记录内的索引，数据文件正常关闭时才使用记录数
+     */
+    private void readIndex(boolean closed) throws IOException {
+        Path path = Paths.get(filePath + INDEX_SUFFIX);
+        if (!Files.exists(path)) {
+            return;
+        }
+        ByteBuffer index = ByteBuffer.wrap(Files.readAllBytes(path));
+        if (index.remaining() < INDEX_HEADER_LENGTH || index.getInt() != INDEX_MAGIC) {
+            return;
         }
+        int interval = index.getInt();
+        if (interval <= 0) {
+            // 索引文件损坏，不使用索引，从头跳过记录
+            log.warn("{} invalid index interval {}, ignored", filePath, interval);
+            return;
+        }
+        indexInterval = interval;
+        long count = index.getLong();
+        long[] offsets = new long[index.remaining() / Long.BYTES];
+        int n = 0;
+        while (n < offsets.length) {
+            long offset = index.getLong();
+            if (offset < dataStart || offset >= dataEnd) {
+                break;
+            }
+            offsets[n++] = offset;
+        }
+        indexOffsets = n == offsets.length ? offsets : Arrays.copyOf(offsets, n);
+        indexedCount = closed ? count : -1;
+    }
+
+    /**
+     * 在持有锁时读取下一个对象，跳过填充，读完时返回null
+     */
+    private T nextRecord() throws IOException {
+        if (mbb == null) {
+            throw new IllegalStateException("stream closed: " + filePath);
+        }
+        while (fileRemainSize >= INT_LENGTH) {
+            long skip = skipWindowTail(position, windowSize) - position;
+            if (skip > 0) {
+                // 窗口末尾的隐式填充
+                position += skip;
+                fileRemainSize -= skip;
+                if (mbb.remaining() >= skip) {
+                    mbb.position(mbb.position() + (int) skip);
+                } else {
+                    resetMbb();
+                }
+                continue;
+            }
+            if (mbb.remaining() < INT_LENGTH) {
+                resetMbb();
+            }
+            int byteSize = mbb.getInt(mbb.position());
+            // 长度为负的是concurrent模式写入的填充，跳过
+            long size = byteSize < 0 ? -(long) byteSize : (long) byteSize + INT_LENGTH;
+            if (size > fileRemainSize) {
+                throw new IllegalStateException("truncated record at " + position + ": " + filePath);
+            }
+            if (size > mbb.remaining()) {
+                // 跨窗口的记录，从记录开始处映射，记录超过ioMappedSize时映射整个记录
+                resetMbb(size);
+            }
+            mbb.position(mbb.position() + INT_LENGTH);
+            T t = null;
+            if (byteSize < 0) {
+                mbb.position(mbb.position() + (int) size - INT_LENGTH);
+            } else {
+                t = decodeRecord(byteSize);
+            }
+            position += size;
+            fileRemainSize -= size;
+            if (t != null) {
+                return t;
+            }
+        }
+        return null;
     }
 
     /**
-     * 重新内存映射
+     * 在持有锁时逐个读取剩下所有元素
+     */
+    private void drain(Consumer<? super T> action) throws IOException {
+        T t = peekReference.getAndSet(null);
+        if (t != null) {
+            action.accept(t);
+        }
+        while ((t = nextRecord()) != null) {
+            action.accept(t);
+        }
+    }
+
+    /**
+     * 从当前读取位置重新内存映射
      */
     private void resetMbb() throws IOException {
-        long bufferSize = fileRemainSize > ioMappedSize ? ioMappedSize : fileRemainSize;
-        this.mbb = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, position, bufferSize);
+        resetMbb(ioMappedSize);
+    }
+
+    /**
+     * 从当前读取位置重新内存映射，至少映射minSize个字节，单个映射不超过2GB，先解除旧的映射
+     */
+    private void resetMbb(long minSize) throws IOException {
+        long bufferSize = Math.min(Math.min(Math.max(ioMappedSize, minSize), fileRemainSize), Integer.MAX_VALUE);
+        unmap(mbb);
+        mbb = null;
+        mbb = map(FileChannel.MapMode.READ_ONLY, position, bufferSize);
+    }
+
+    /**
+     * 从mbb的长度之后解码记录
+     */
+    private T decodeRecord(int length) {
+        return decodeRecord(mbb, length);
+    }
+
+    /**
+     * 一次遍历：拆分边界、记录总数（未知时为-1）、还没有遍历完的拆分
+     */
+    private class Traversal {
+        private final long[] bounds;
+        private final long total;
+        private final Queue<RecordSpliterator> open = new ConcurrentLinkedQueue<>();
+
+        private Traversal(long[] bounds, long total) {
+            this.bounds = bounds;
+            this.total = total;
+        }
+
+        /**
+         * 第lo到hi个边界之间的记录数，只有最后一段可能不足indexInterval个
+         */
+        private long size(int lo, int hi) {
+            return total >= 0 && hi == bounds.length - 1
+                    ? total - (long) lo * indexInterval
+                    : (long) (hi - lo) * indexInterval;
+        }
+    }
+
+    /**
+     * 读取[bounds[lo], bounds[hi])内的记录，按边界下标对半拆分，每个拆分自己按ioMappedSize分窗口映射
+     * 没有遍历完的拆分登记在traversal中，流关闭或输入流关闭时解除它们的窗口
+     */
+    private class RecordSpliterator implements Spliterator<T> {
+        private final Traversal traversal;
+        private final long[] bounds;
+        private int lo;
+        private final int hi;
+        private long pos;
+        /**
+         * 剩余记录数，记录总数未知时为估计值
+         */
+        private long remaining;
+        private long windowStart;
+        private MappedByteBuffer window;
+
+        private RecordSpliterator(Traversal traversal, int lo, int hi) {
+            this.traversal = traversal;
+            this.bounds = traversal.bounds;
+            this.lo = lo;
+            this.hi = hi;
+            this.pos = bounds[lo];
+            this.remaining = traversal.size(lo, hi);
+            traversal.open.add(this);
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            long to = bounds[hi];
+            try {
+                while (to - (pos = skipWindowTail(pos, windowSize)) >= INT_LENGTH) {
+                    int length = window(INT_LENGTH).getInt();
+                    long size = length < 0 ? -(long) length : (long) length + INT_LENGTH;
+                    if (length >= 0) {
+                        // 整个记录映射到同一个窗口内再解码
+                        ByteBuffer buffer = window((int) size);
+                        buffer.position(buffer.position() + INT_LENGTH);
+                        T t = decodeRecord(buffer, length);
+                        pos += size;
+                        remaining--;
+                        action.accept(t);
+                        return true;
+                    }
+                    pos += size;
+                }
+                unmap(window);
+                window = null;
+                remaining = 0;
+                traversal.open.remove(this);
+                if (traversal.open.isEmpty()) {
+                    traversals.remove(traversal);
+                }
+                return false;
+            } catch (IOException e) {
+                throw new RuntimeException("读取文件失败", e);
+            }
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            // 已经开始读取的不再拆分
+            if (hi - lo < 2 || pos != bounds[lo]) {
+                return null;
+            }
+            int mid = (lo + hi) >>> 1;
+            Spliterator<T> prefix = new RecordSpliterator(traversal, lo, mid);
+            lo = mid;
+            pos = bounds[mid];
+            remaining = traversal.size(lo, hi);
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return remaining;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | NONNULL | IMMUTABLE | (traversal.total >= 0 ? SIZED | SUBSIZED : 0);
+        }
+
+        /**
+         * 解除同一次遍历所有拆分的窗口，在流的终止操作返回后调用，此时没有线程在遍历
+         */
+        private void close() {
+            MappedInputStream.this.close(traversal);
+        }
+
+        /**
+         * 从pos开始size个字节所在的窗口，position为pos，窗口不够时先解除旧的映射，在pos重新映射
+         * 同时映射的字节数会超过上限时只映射当前记录
+         */
+        private ByteBuffer window(int size) throws IOException {
+            if (window == null || pos < windowStart || pos + size > windowStart + window.capacity()) {
+                unmap(window);
+                window = null;
+                long windowSize = metrics.mappedBytes() + ioMappedSize > maxMappedBytes ? size : Math.max(ioMappedSize, size);
+                windowStart = pos;
+                window = map(FileChannel.MapMode.READ_ONLY, pos, Math.min(Math.min(windowSize, bounds[hi] - pos), Integer.MAX_VALUE));
+            }
+            window.position((int) (pos - windowStart));
+            return window;
+        }
     }
 
     /**
-     * bytes数组转对象
+     * 从buffer的长度之后解码记录，不复制，有校验和时先校验
      */
-    private T getObj(byte[] bytes) throws Exception {
-        try (ByteArrayInputStream bis = new ByteArrayInputStream(bytes);
-             ObjectInputStream ois = new ObjectInputStream(bis)) {
-            return (T) ois.readObject();
+    private T decodeRecord(ByteBuffer buffer, int length) {
+        int expected = checksum ? buffer.getInt() : 0;
+        int byteSize = checksum ? length - INT_LENGTH : length;
+        ByteBuffer slice = buffer.slice();
+        slice.limit(byteSize);
+        if (checksum && crc(slice) != expected) {
+            throw new IllegalStateException("checksum mismatch: " + filePath);
         }
+        buffer.position(buffer.position() + byteSize);
+        return codec.decode(slice);
     }
 }
\ No newline at end of file
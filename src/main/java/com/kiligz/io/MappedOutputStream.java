@@ -2,90 +2,514 @@ package com.kiligz.io;
 
 import lombok.extern.slf4j.Slf4j;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.io.RandomAccessFile;
+import java.lang.invoke.VarHandle;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * 线程安全的内存映射输出流
+ * 对象用{@link Codec}编码，默认java序列化
+ * <pre>
+ * 1.默认加锁写入，直接编码到映射内存，先占位长度，编码后回填，不复制、不分配临时数组
+ *   剩余空间不够时从记录开始处重新映射后重新编码，单个记录超过ioMappedSize时映射翻倍
+ * 2.concurrent模式无锁写入，各线程先编码到自己的缓冲区，再原子占位（fetch-and-add）后并行复制到映射内存
+ *   文件按ioMappedSize分为窗口，记录不跨窗口，跨窗口的占位写为填充（长度为负的记录）后重新占位
+ *   填充的长度一次写入，不跨窗口；窗口末尾不足4个字节时为隐式填充，文件头记录窗口大小，读取时按窗口大小跳过
+ *   长度最后写入，作为提交标记，读取时不会读到写了一半的记录；窗口写满后刷盘并解除映射
+ *   设置了{@link #setMaxMappedBytes}时，映射的窗口会超过上限则在占位前等待，已占位的写入不等待，不会死锁
+ * 3.文件格式见{@link AbstractMappedStream}，关闭时在文件头记录文件长度，未正常关闭的文件可用{@link #recover}修复
+ * 4.非concurrent模式每{@value #INDEX_INTERVAL}个记录写一个索引，供{@link MappedInputStream#seek}跳转
+ * </pre>
  *
  * @author Ivan
  * @since 2024/7/3
  */
 @Slf4j
 public class MappedOutputStream<T> extends AbstractMappedStream {
+    /**
+     * concurrent模式每个线程的编码缓冲区，不够时翻倍
+     */
+    private static final ThreadLocal<ByteBuffer> ENCODE_BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocate(1024));
+
+    private final Codec<T> codec;
+
+    /**
+     * 是否无锁并发写入
+     */
+    private final boolean concurrent;
+
+    /**
+     * concurrent模式的写入位置，占位时原子增加
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * concurrent模式正在写入的窗口，窗口序号 -> 窗口
+     */
+    private final Map<Long, Window> windows = new ConcurrentHashMap<>();
+
+    /**
+     * concurrent模式已映射窗口的字节数加上正在占位的写入预留的字节数，不超过maxMappedBytes
+     */
+    private final AtomicLong committedBytes = new AtomicLong();
+
+    /**
+     * 是否已关闭，concurrent模式持有读锁时检查
+     */
+    private boolean closed;
+
+    /**
+     * 非concurrent模式的索引文件、已写入的记录数
+     */
+    private RandomAccessFile indexFile;
+    private long records;
+    private final ByteBuffer indexEntry = ByteBuffer.allocate(Long.BYTES);
+
+    /**
+     * 修复未正常关闭的文件：截断最后一个完整记录之后的内容，并标记为正常关闭，返回有效长度
+     */
+    public static long recover(String filePath) {
+        try (RandomAccessFile raf = new RandomAccessFile(filePath, "rw")) {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = readHeader(channel);
+            long size = channel.size();
+            if (header == null || header.getLong(CLOSED_LENGTH_OFFSET) == size) {
+                return size;
+            }
+            long end = scan(channel, HEADER_LENGTH, size, defaultMappedSize(), windowSize(header));
+            log.warn("recover {}: {} -> {}", filePath, size, end);
+            raf.setLength(end);
+            writeClosedLength(channel, end);
+            return end;
+        } catch (IOException e) {
+            throw new RuntimeException("修复文件失败", e);
+        }
+    }
+
     public MappedOutputStream(String filePath) {
         this(filePath, defaultMappedSize());
     }
 
     public MappedOutputStream(String filePath, long ioMappedSize) {
+        this(filePath, ioMappedSize, Codecs.serializable());
+    }
+
+    public MappedOutputStream(String filePath, Codec<T> codec) {
+        this(filePath, defaultMappedSize(), codec);
+    }
+
+    public MappedOutputStream(String filePath, long ioMappedSize, Codec<T> codec) {
+        this(filePath, ioMappedSize, codec, false);
+    }
+
+    /**
+     * concurrent为true时多线程无锁写入，单个记录不能超过ioMappedSize
+     */
+    public MappedOutputStream(String filePath, long ioMappedSize, Codec<T> codec, boolean concurrent) {
         try {
             this.filePath = filePath;
             this.ioMappedSize = ioMappedSize;
+            this.codec = codec;
+            this.concurrent = concurrent;
             this.raf = new RandomAccessFile(filePath, "rw");
-            this.mbb = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, position, ioMappedSize);
+            raf.setLength(0);
+            this.position = HEADER_LENGTH;
+            this.tail.set(HEADER_LENGTH);
+            ByteBuffer header = concurrent ? window(0).buffer.duplicate() : map(FileChannel.MapMode.READ_WRITE, 0, ioMappedSize);
+            header.putInt(MAGIC).putInt(VERSION).putLong(0).putLong(concurrent ? ioMappedSize : 0);
+            String indexPath = filePath + INDEX_SUFFIX;
+            if (concurrent) {
+                filled(0, window(0), HEADER_LENGTH);
+                Files.deleteIfExists(Paths.get(indexPath));
+            } else {
+                this.mbb = (MappedByteBuffer) header;
+                this.indexFile = new RandomAccessFile(indexPath, "rw");
+                indexFile.setLength(0);
+                ByteBuffer indexHeader = ByteBuffer.allocate(INDEX_HEADER_LENGTH);
+                indexHeader.putInt(INDEX_MAGIC).putInt(INDEX_INTERVAL).putLong(-1).flip();
+                indexFile.getChannel().write(indexHeader, 0);
+            }
         } catch (IOException e) {
             throw new RuntimeException("写入文件失败", e);
         }
     }
 
     /**
-     * 写入一个对象
+     * 打开已有的文件，修复后从最后一个完整记录之后继续写入，映射ioMappedSize个字节，重建索引
+     * 只支持非concurrent模式写入的文件
      */
-    public void write(T t) {
+    static <T> MappedOutputStream<T> reopen(String filePath, long ioMappedSize, Codec<T> codec) {
+        return new MappedOutputStream<>(filePath, ioMappedSize, codec, recover(filePath));
+    }
+
+    /**
+     * 从end继续写入已有的文件
+     */
+    private MappedOutputStream(String filePath, long ioMappedSize, Codec<T> codec, long end) {
         try {
-            byte[] bytes = getBytes(t);
-            // 加锁写入对象
-            lock.lock();
-            try {
-                int size = bytes.length + INT_LENGTH;
-                if (mbb.remaining() < size) {
-                    resetMbb();
+            this.filePath = filePath;
+            this.ioMappedSize = ioMappedSize;
+            this.codec = codec;
+            this.concurrent = false;
+            this.raf = new RandomAccessFile(filePath, "rw");
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = readHeader(channel);
+            if (header == null || windowSize(header) != 0) {
+                raf.close();
+                throw new IllegalStateException("cannot append to " + filePath);
+            }
+            // 写入期间标记为未正常关闭
+            writeClosedLength(channel, 0);
+            this.indexFile = new RandomAccessFile(filePath + INDEX_SUFFIX, "rw");
+            indexFile.setLength(0);
+            ByteBuffer indexHeader = ByteBuffer.allocate(INDEX_HEADER_LENGTH);
+            indexHeader.putInt(INDEX_MAGIC).putInt(INDEX_INTERVAL).putLong(-1).flip();
+            indexFile.getChannel().write(indexHeader, 0);
+            try (RecordWalker walker = new RecordWalker(channel, HEADER_LENGTH, end, ioMappedSize, 0, metrics)) {
+                long offset = HEADER_LENGTH;
+                while (walker.next()) {
+                    if (records % INDEX_INTERVAL == 0) {
+                        writeIndex(records / INDEX_INTERVAL, offset);
+                    }
+                    records++;
+                    offset = walker.getPosition();
                 }
-                mbb.putInt(bytes.length);
-                mbb.put(bytes);
-                position += size;
-            } finally {
-                lock.unlock();
             }
+            this.position = end;
+            this.mbb = map(FileChannel.MapMode.READ_WRITE, end, ioMappedSize);
         } catch (IOException e) {
             throw new RuntimeException("写入文件失败", e);
         }
     }
 
     /**
-     * 关闭输出流
+     * 写入一个对象，返回记录在文件中的位置，可用于{@link MappedInputStream#readAt}
+     */
+    public long write(T t) {
+        return concurrent ? append(t) : write(t, true);
+    }
+
+    /**
+     * 在当前映射内写入一个对象，剩余空间不够时不重新映射，返回false，只用于非concurrent模式
+     */
+    boolean tryWrite(T t) {
+        return write(t, false) >= 0;
+    }
+
+    /**
+     * 加锁写入对象，返回记录位置，剩余空间不够且remap为false时返回-1
+     */
+    private long write(T t, boolean remap) {
+        lock.lock();
+        try {
+            if (mbb == null) {
+                throw new IllegalStateException("stream closed: " + filePath);
+            }
+            while (true) {
+                int start = mbb.position();
+                try {
+                    // 长度、校验和占位
+                    mbb.putInt(0).putInt(0);
+                    codec.encode(t, mbb);
+                    int end = mbb.position();
+                    mbb.limit(end).position(start + RECORD_HEADER_LENGTH);
+                    int crc = crc(mbb);
+                    mbb.limit(mbb.capacity()).position(end);
+                    mbb.putInt(start + INT_LENGTH, crc);
+                    // 长度最后写入，尾随读取时作为提交标记
+                    VarHandle.releaseFence();
+                    mbb.putInt(start, end - start - INT_LENGTH);
+                    long offset = position;
+                    position += end - start;
+                    if (records % INDEX_INTERVAL == 0) {
+                        writeIndex(records / INDEX_INTERVAL, offset);
+                    }
+                    records++;
+                    return offset;
+                } catch (BufferOverflowException e) {
+                    mbb.position(start);
+                    if (!remap) {
+                        return -1;
+                    }
+                    // 从记录开始处映射仍放不下时翻倍
+                    resetMbb(start == 0 ? grow(mbb.capacity()) : ioMappedSize);
+                } catch (RuntimeException e) {
+                    mbb.position(start);
+                    throw e;
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("写入文件失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 非concurrent模式已写入的记录数
+     */
+    long records() {
+        return records;
+    }
+
+    /**
+     * 当前写入位置，concurrent模式为已占位的位置
+     */
+    @Override
+    public long position() {
+        return concurrent ? tail.get() : super.position();
+    }
+
+    /**
+     * concurrent模式不能小于3个ioMappedSize：当前窗口，以及占位跨窗口时的两个窗口
+     */
+    @Override
+    public void setMaxMappedBytes(long maxMappedBytes) {
+        if (concurrent && maxMappedBytes < 3 * ioMappedSize) {
+            throw new IllegalArgumentException("maxMappedBytes less than 3 * ioMappedSize: " + maxMappedBytes);
+        }
+        super.setMaxMappedBytes(maxMappedBytes);
+    }
+
+    /**
+     * 关闭输出流，解除映射，重复关闭无效果
+     * concurrent模式等待正在进行的写入返回，之后的写入抛出IllegalStateException
      */
     @Override
     public void close() {
+        lock.lock();
         try {
-            mbb.force();
-            raf.setLength(position);
+            if (closed) {
+                return;
+            }
+            closed = true;
+            long length;
+            if (concurrent) {
+                windows.values().forEach(window -> {
+                    window.buffer.force();
+                    unmap(window.buffer);
+                });
+                windows.clear();
+                length = tail.get();
+            } else {
+                mbb.force();
+                unmap(mbb);
+                mbb = null;
+                length = position;
+                ByteBuffer count = ByteBuffer.allocate(Long.BYTES);
+                count.putLong(0, records);
+                indexFile.getChannel().write(count, INDEX_HEADER_LENGTH - Long.BYTES);
+                indexFile.getChannel().force(true);
+                indexFile.close();
+            }
+            raf.setLength(length);
+            writeClosedLength(raf.getChannel(), length);
             raf.close();
         } catch (IOException e) {
             throw new RuntimeException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 无锁写入，编码后占位，复制到映射内存，最后写入长度提交，返回记录位置
+     */
+    private long append(T t) {
+        ByteBuffer bytes = encode(t);
+        int crc = crc(bytes);
+        int length = bytes.remaining() + INT_LENGTH;
+        int size = length + INT_LENGTH;
+        if (size > ioMappedSize) {
+            throw new IllegalArgumentException("record larger than ioMappedSize: " + size);
+        }
+        // 读锁与close互斥，close等待正在进行的写入返回后再解除映射
+        lock.readLock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("stream closed: " + filePath);
+            }
+            while (true) {
+                long reserved = reserveMapped();
+                try {
+                    long start = tail.getAndAdd(size);
+                    long index = start / ioMappedSize;
+                    int offset = (int) (start - index * ioMappedSize);
+                    if (offset + size <= ioMappedSize) {
+                        Window window = window(index);
+                        ByteBuffer dup = window.buffer.duplicate();
+                        dup.position(offset + INT_LENGTH);
+                        dup.putInt(crc).put(bytes);
+                        VarHandle.releaseFence();
+                        window.buffer.putInt(offset, length);
+                        filled(index, window, size);
+                        return start;
+                    }
+                    // 跨窗口，整个占位写为填充，重新占位
+                    pad(index, offset, size);
+                } finally {
+                    committedBytes.addAndGet(-reserved);
+                }
+            }
+        } finally {
+            lock.readUnlock();
+        }
+    }
+
+    /**
+     * 写入跨窗口的填充记录，长度为负的占位字节数（含长度本身），长度一次写入，不跨窗口
+     * 当前窗口剩余不足INT_LENGTH个字节时为隐式填充，只在下一窗口开头写剩下部分的填充
+     */
+    private void pad(long index, int offset, int size) {
+        Window window = window(index);
+        Window next = window(index + 1);
+        int head = (int) (ioMappedSize - offset);
+        VarHandle.releaseFence();
+        if (head >= INT_LENGTH) {
+            window.buffer.putInt(offset, -size);
+        } else {
+            next.buffer.putInt(0, head - size);
+        }
+        filled(index, window, head);
+        filled(index + 1, next, size - head);
+    }
+
+    /**
+     * 占位前CAS预留本次占位最多新映射的两个窗口，返回预留的字节数，不限制时不预留
+     * 已映射加上已预留的会超过上限时，等待已占位的写入写满窗口后解除映射
+     * 预留与检查是同一次CAS，多个写入线程不会同时通过检查，新映射的窗口在预留释放前重复计入，只会更保守
+     */
+    private long reserveMapped() {
+        long max = maxMappedBytes;
+        if (max == Long.MAX_VALUE) {
+            return 0;
+        }
+        long reserve = 2 * ioMappedSize;
+        long parkNanos = 1000;
+        boolean waited = false;
+        while (true) {
+            long committed = committedBytes.get();
+            if (committed + reserve <= max) {
+                if (committedBytes.compareAndSet(committed, committed + reserve)) {
+                    return reserve;
+                }
+                continue;
+            }
+            if (!waited) {
+                metrics.waited();
+                waited = true;
+            }
+            LockSupport.parkNanos(parkNanos);
+            parkNanos = Math.min(parkNanos * 2, 1_000_000);
+        }
+    }
+
+    /**
+     * 获取窗口，不存在时映射
+     */
+    private Window window(long index) {
+        return windows.computeIfAbsent(index, i -> {
+            try {
+                MappedByteBuffer buffer = map(FileChannel.MapMode.READ_WRITE, i * ioMappedSize, ioMappedSize);
+                committedBytes.addAndGet(ioMappedSize);
+                return new Window(buffer);
+            } catch (IOException e) {
+                throw new RuntimeException("写入文件失败", e);
+            }
+        });
+    }
+
+    /**
+     * 记录窗口已写入的字节数，写满时刷盘并解除映射，此时窗口内的占位都已写完
+     */
+    private void filled(long index, Window window, int size) {
+        if (window.filled.addAndGet(size) == ioMappedSize) {
+            windows.remove(index);
+            window.buffer.force();
+            unmap(window.buffer);
+            committedBytes.addAndGet(-ioMappedSize);
         }
     }
 
     /**
-     * 重新内存映射
+     * 写入第i个索引：第i*INDEX_INTERVAL个记录的位置
      */
-    private void resetMbb() throws IOException {
+    private void writeIndex(long i, long offset) throws IOException {
+        indexEntry.clear();
+        indexEntry.putLong(0, offset);
+        indexFile.getChannel().write(indexEntry, INDEX_HEADER_LENGTH + i * Long.BYTES);
+    }
+
+    /**
+     * 在文件头记录正常关闭时的文件长度，并刷盘
+     */
+    private static void writeClosedLength(FileChannel channel, long length) throws IOException {
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_LENGTH);
+        header.putLong(CLOSED_LENGTH_OFFSET, length);
+        header.force();
+        unmap(header, null);
+    }
+
+    /**
+     * 编码到当前线程的缓冲区，返回可读的buffer
+     */
+    private ByteBuffer encode(T t) {
+        ByteBuffer buffer = ENCODE_BUFFER.get();
+        while (true) {
+            buffer.clear();
+            try {
+                codec.encode(t, buffer);
+                return buffer.flip();
+            } catch (BufferOverflowException e) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+                ENCODE_BUFFER.set(buffer);
+            }
+        }
+    }
+
+    /**
+     * 从当前位置重新内存映射，先刷盘并解除旧的映射
+     */
+    private void resetMbb(long size) throws IOException {
         mbb.force();
-        mbb = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, position, ioMappedSize);
+        unmap(mbb);
+        mbb = null;
+        mbb = map(FileChannel.MapMode.READ_WRITE, position, size);
+    }
+
+    /**
+     * 映射大小翻倍，最大2G
+     */
+    private static long grow(int capacity) {
+        if (capacity == Integer.MAX_VALUE) {
+            throw new IllegalStateException("record too large");
+        }
+        return Math.min((long) capacity * 2, Integer.MAX_VALUE);
     }
 
     /**
-     * 对象转bytes数组
+     * concurrent模式的写入窗口
      */
-    private static byte[] getBytes(Object obj) throws IOException {
-        try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
-             ObjectOutputStream oos = new ObjectOutputStream(bos)) {
-            oos.writeObject(obj);
-            oos.flush();
-            return bos.toByteArray();
+    private static class Window {
+        private final MappedByteBuffer buffer;
+
+        /**
+         * 已写入的字节数，包括填充
+         */
+        private final AtomicLong filled = new AtomicLong();
+
+        private Window(MappedByteBuffer buffer) {
+            this.buffer = buffer;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,205 @@
+package com.kiligz.io;
+
+import com.esotericsoftware.reflectasm.ConstructorAccess;
+import com.esotericsoftware.reflectasm.FieldAccess;
+import com.esotericsoftware.reflectasm.MethodAccess;
+import com.kiligz.reflect.ReflectUtil;
+import org.springframework.util.StringUtils;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * POJO编解码器，通过reflectasm生成的访问器读写字段，不写类描述
+ * <pre>
+ * 1.public字段用FieldAccess直接访问，其他字段用public的getter、setter（MethodAccess）
+ *   生成的访问器由reflectasm的类加载器加载，访问不了非public成员
+ * 2.基本类型字段直接写入，引用类型字段先写1个字节标记是否为null
+ * 3.变长字段先写4个字节长度，解码时切片，字段编解码器见{@link Codecs#forClass}
+ * 4.字段从父类到子类、同一个类内按字段名排序，getDeclaredFields不保证顺序，不能按声明顺序编码
+ * 5.不写实际类型，值为子类时子类的字段会丢失，编码时抛出IllegalArgumentException
+ * </pre>
+ *
+ * @author ivan.zhu
+ * @since 2026/10/19
+ */
+@SuppressWarnings("unchecked")
+class PojoCodec<T> implements Codec<T> {
+    private final Class<T> clazz;
+
+    private final ConstructorAccess<T> constructorAccess;
+
+    private final Property[] properties;
+
+    PojoCodec(Class<T> clazz) {
+        this.clazz = clazz;
+        this.constructorAccess = ConstructorAccess.get(clazz);
+        FieldAccess fieldAccess = ReflectUtil.getFieldAccess(clazz);
+        MethodAccess methodAccess = ReflectUtil.getMethodAccess(clazz);
+        List<Field> accessFields = Arrays.asList(fieldAccess.getFields());
+
+        List<Class<?>> hierarchy = new ArrayList<>();
+        for (Class<?> c = clazz; c != Object.class; c = c.getSuperclass()) {
+            hierarchy.add(0, c);
+        }
+        List<Property> properties = new ArrayList<>();
+        for (Class<?> c : hierarchy) {
+            Field[] fields = c.getDeclaredFields();
+            Arrays.sort(fields, Comparator.comparing(Field::getName));
+            for (Field field : fields) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+                    continue;
+                }
+                if (Modifier.isFinal(modifiers)) {
+                    throw new IllegalArgumentException("final field not supported: " + field);
+                }
+                int index = Modifier.isPublic(modifiers) ? accessFields.indexOf(field) : -1;
+                properties.add(index >= 0
+                        ? new FieldProperty(field.getType(), fieldAccess, index)
+                        : new MethodProperty(field, methodAccess));
+            }
+        }
+        this.properties = properties.toArray(new Property[0]);
+    }
+
+    @Override
+    public void encode(T t, ByteBuffer buffer) {
+        if (t.getClass() != clazz) {
+            throw new IllegalArgumentException("subclass not supported: " + t.getClass().getName()
+                    + " of " + clazz.getName());
+        }
+        for (Property property : properties) {
+            Object value = property.get(t);
+            if (!property.type.isPrimitive()) {
+                if (value == null) {
+                    buffer.put((byte) 0);
+                    continue;
+                }
+                buffer.put((byte) 1);
+            }
+            Codec<Object> codec = property.codec();
+            if (codec.fixedSize() >= 0) {
+                codec.encode(value, buffer);
+            } else {
+                // 先占位长度，编码后回填
+                int lengthAt = buffer.position();
+                buffer.putInt(0);
+                codec.encode(value, buffer);
+                buffer.putInt(lengthAt, buffer.position() - lengthAt - Integer.BYTES);
+            }
+        }
+    }
+
+    @Override
+    public T decode(ByteBuffer buffer) {
+        T t = constructorAccess.newInstance();
+        for (Property property : properties) {
+            if (!property.type.isPrimitive() && buffer.get() == 0) {
+                property.set(t, null);
+                continue;
+            }
+            Codec<Object> codec = property.codec();
+            Object value;
+            if (codec.fixedSize() >= 0) {
+                value = codec.decode(buffer);
+            } else {
+                int length = buffer.getInt();
+                ByteBuffer slice = buffer.slice();
+                slice.limit(length);
+                value = codec.decode(slice);
+                buffer.position(buffer.position() + length);
+            }
+            property.set(t, value);
+        }
+        return t;
+    }
+
+    /**
+     * 字段
+     */
+    private abstract static class Property {
+        private final Class<?> type;
+
+        /**
+         * 字段编解码器，首次使用时获取，支持字段类型引用自身
+         */
+        private Codec<Object> codec;
+
+        private Property(Class<?> type) {
+            this.type = type;
+        }
+
+        private Codec<Object> codec() {
+            if (codec == null) {
+                codec = (Codec<Object>) Codecs.forClass(type);
+            }
+            return codec;
+        }
+
+        abstract Object get(Object obj);
+
+        abstract void set(Object obj, Object value);
+    }
+
+    /**
+     * public字段，直接访问
+     */
+    private static class FieldProperty extends Property {
+        private final FieldAccess access;
+        private final int index;
+
+        private FieldProperty(Class<?> type, FieldAccess access, int index) {
+            super(type);
+            this.access = access;
+            this.index = index;
+        }
+
+        @Override
+        Object get(Object obj) {
+            return access.get(obj, index);
+        }
+
+        @Override
+        void set(Object obj, Object value) {
+            access.set(obj, index, value);
+        }
+    }
+
+    /**
+     * 非public字段，通过getter、setter访问
+     */
+    private static class MethodProperty extends Property {
+        private final MethodAccess access;
+        private final int getterIndex;
+        private final int setterIndex;
+
+        private MethodProperty(Field field, MethodAccess access) {
+            super(field.getType());
+            this.access = access;
+            String capitalize = StringUtils.capitalize(field.getName());
+            String getter = (field.getType() == boolean.class ? "is" : "get") + capitalize;
+            try {
+                this.getterIndex = access.getIndex(getter, 0);
+                this.setterIndex = access.getIndex("set" + capitalize, field.getType());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("no getter or setter for field: " + field, e);
+            }
+        }
+
+        @Override
+        Object get(Object obj) {
+            return access.invoke(obj, getterIndex);
+        }
+
+        @Override
+        void set(Object obj, Object value) {
+            access.invoke(obj, setterIndex, value);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.kiligz.io;
+
+import com.kiligz.concurrent.ReentrantSpinLock;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+
+/**
+ * 线程安全的分段内存映射输入流，按基准序号顺序跨段读取{@link SegmentedMappedOutputStream}写入的目录
+ * 打开时列出所有段，已被删除的段跳过，reset时重新列出
+ *
+ * @author ivan.zhu
+ * @since 2026/10/19
+ */
+@Slf4j
+public class SegmentedMappedInputStream<T> implements AutoCloseable {
+    @Getter
+    private final String dirPath;
+
+    private final long ioMappedSize;
+
+    private final Codec<T> codec;
+
+    /**
+     * 基准序号 -> 段文件
+     */
+    private NavigableMap<Long, Path> segments;
+
+    /**
+     * 当前读取的段及其基准序号，读完所有段时为null
+     */
+    private MappedInputStream<T> current;
+    private Long currentBase;
+
+    private final ReentrantSpinLock lock = new ReentrantSpinLock();
+
+    public SegmentedMappedInputStream(String dirPath, Codec<T> codec) {
+        this(dirPath, AbstractMappedStream.defaultMappedSize(), codec);
+    }
+
+    public SegmentedMappedInputStream(String dirPath, long ioMappedSize, Codec<T> codec) {
+        this.dirPath = dirPath;
+        this.ioMappedSize = ioMappedSize;
+        this.codec = codec;
+        reset();
+    }
+
+    /**
+     * 读取一个对象，当前段读完时切换到下一段，全部读完时返回null
+     */
+    public T read() {
+        lock.lock();
+        try {
+            while (current != null) {
+                T t = current.read();
+                if (t != null) {
+                    return t;
+                }
+                next();
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 偷看当前读取位置的第一个对象
+     */
+    public T peek() {
+        lock.lock();
+        try {
+            while (current != null) {
+                T t = current.peek();
+                if (t != null) {
+                    return t;
+                }
+                next();
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 是否还有元素
+     */
+    public boolean hasNext() {
+        return peek() != null;
+    }
+
+    /**
+     * 读取剩下所有段的所有元素
+     */
+    public List<T> readAll() {
+        lock.lock();
+        try {
+            List<T> list = new ArrayList<>();
+            while (current != null) {
+                list.addAll(current.readAll());
+                next();
+            }
+            return list;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 跳转到序号为recordNumber的记录，按基准序号找到段后在段内跳转
+     * 返回该记录是否存在，所在段已删除时从第一个存在的段开始读取，超出末尾时跳到最后一段的末尾
+     */
+    public boolean seek(long recordNumber) {
+        lock.lock();
+        try {
+            closeCurrent();
+            Map.Entry<Long, Path> entry = segments.floorEntry(recordNumber);
+            if (entry == null || !Files.exists(entry.getValue())) {
+                currentBase = entry == null ? null : entry.getKey();
+                next();
+                return false;
+            }
+            currentBase = entry.getKey();
+            current = new MappedInputStream<>(entry.getValue().toString(), ioMappedSize, codec);
+            return current.seek(recordNumber - currentBase);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 所有段的基准序号
+     */
+    public List<Long> segments() {
+        lock.lock();
+        try {
+            return new ArrayList<>(segments.keySet());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 重新列出所有段，从第一段开始读取
+     */
+    public void reset() {
+        lock.lock();
+        try {
+            closeCurrent();
+            segments = SegmentedMappedOutputStream.listSegments(dirPath);
+            currentBase = null;
+            next();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 关闭输入流
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closeCurrent();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 关闭当前段，打开下一个存在的段
+     */
+    private void next() {
+        closeCurrent();
+        Map.Entry<Long, Path> entry = currentBase == null ? segments.firstEntry() : segments.higherEntry(currentBase);
+        while (entry != null && !Files.exists(entry.getValue())) {
+            log.warn("segment deleted: {}", entry.getValue());
+            entry = segments.higherEntry(entry.getKey());
+        }
+        if (entry != null) {
+            currentBase = entry.getKey();
+            current = new MappedInputStream<>(entry.getValue().toString(), ioMappedSize, codec);
+        }
+    }
+
+    private void closeCurrent() {
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+    }
+}
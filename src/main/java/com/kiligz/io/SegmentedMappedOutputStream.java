@@ -0,0 +1,260 @@
+package com.kiligz.io;
+
+import com.kiligz.concurrent.ReentrantSpinLock;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * 线程安全的分段内存映射输出流
+ * <pre>
+ * 1.目录下按固定大小分段写入，每段是一个{@link MappedOutputStream}文件，创建时映射整段，写入时不会重新映射
+ * 2.当前段放不下时直接编码到新段，写入成功后才关闭当前段，切换到新段；新段也放不下时删除新段，单个记录不能超过段大小
+ * 3.段文件名为段内第一个记录的序号（基准序号），按序号有序，可以按序号删除、归档旧段
+ * 4.目录下已有段时，修复最后一段，未写满时继续写入最后一段，否则从新段继续写入
+ * 5.每段有自己的索引文件，{@link SegmentedMappedInputStream#seek}先按基准序号找到段，再在段内跳转
+ * </pre>
+ * 用{@link SegmentedMappedInputStream}跨段读取
+ *
+ * @author ivan.zhu
+ * @since 2026/10/19
+ */
+@Slf4j
+public class SegmentedMappedOutputStream<T> implements AutoCloseable {
+    /**
+     * 默认段大小 256MB
+     */
+    public static final long DEFAULT_SEGMENT_SIZE = 256L << 20;
+
+    static final String SEGMENT_SUFFIX = ".seg";
+
+    /**
+     * 只计数不解码
+     */
+    private static final Codec<Object> SKIP = new Codec<>() {
+        @Override
+        public void encode(Object o, ByteBuffer buffer) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Object decode(ByteBuffer buffer) {
+            return Boolean.TRUE;
+        }
+    };
+
+    @Getter
+    private final String dirPath;
+
+    private final long segmentSize;
+
+    private final Codec<T> codec;
+
+    /**
+     * 基准序号 -> 段文件，最后一段为当前写入的段
+     */
+    private final NavigableMap<Long, Path> segments = new ConcurrentSkipListMap<>();
+
+    /**
+     * 当前写入的段
+     */
+    private MappedOutputStream<T> current;
+
+    /**
+     * 下一个记录的序号
+     */
+    private volatile long nextNumber;
+
+    private final ReentrantSpinLock lock = new ReentrantSpinLock();
+
+    private boolean closed;
+
+    public SegmentedMappedOutputStream(String dirPath, Codec<T> codec) {
+        this(dirPath, DEFAULT_SEGMENT_SIZE, codec);
+    }
+
+    public SegmentedMappedOutputStream(String dirPath, long segmentSize, Codec<T> codec) {
+        if (segmentSize <= AbstractMappedStream.HEADER_LENGTH || segmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("invalid segmentSize: " + segmentSize);
+        }
+        this.dirPath = dirPath;
+        this.segmentSize = segmentSize;
+        this.codec = codec;
+        try {
+            Files.createDirectories(Paths.get(dirPath));
+        } catch (IOException e) {
+            throw new RuntimeException("创建目录失败", e);
+        }
+        segments.putAll(listSegments(dirPath));
+        if (segments.isEmpty()) {
+            roll();
+            return;
+        }
+        Map.Entry<Long, Path> last = segments.lastEntry();
+        String lastPath = last.getValue().toString();
+        long end = MappedOutputStream.recover(lastPath);
+        if (segmentSize - end > AbstractMappedStream.RECORD_HEADER_LENGTH) {
+            current = MappedOutputStream.reopen(lastPath, segmentSize - end, codec);
+            nextNumber = last.getKey() + current.records();
+        } else {
+            nextNumber = last.getKey() + count(lastPath);
+            roll();
+        }
+    }
+
+    /**
+     * 写入一个对象，当前段放不下时滚动到下一段，返回记录序号
+     */
+    public long write(T t) {
+        lock.lock();
+        try {
+            if (!current.tryWrite(t)) {
+                rollWith(t);
+            }
+            return nextNumber++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 已写入的记录总数，包括已删除的段
+     */
+    public long count() {
+        return nextNumber;
+    }
+
+    /**
+     * 所有段的基准序号
+     */
+    public List<Long> segments() {
+        return new ArrayList<>(segments.keySet());
+    }
+
+    /**
+     * 删除所有记录序号都小于recordNumber的段，不删除当前写入的段，返回删除的段数
+     */
+    public int deleteBefore(long recordNumber) {
+        lock.lock();
+        try {
+            int deleted = 0;
+            Map.Entry<Long, Path> entry = segments.firstEntry();
+            while (entry != null) {
+                Long next = segments.higherKey(entry.getKey());
+                if (next == null || next > recordNumber) {
+                    break;
+                }
+                deleteSegment(entry.getValue());
+                segments.remove(entry.getKey());
+                deleted++;
+                entry = segments.firstEntry();
+            }
+            return deleted;
+        } catch (IOException e) {
+            throw new RuntimeException("删除段失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 关闭当前段，重复关闭无效果
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            current.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 关闭当前段，新建基准序号为nextNumber的段
+     */
+    private void roll() {
+        if (current != null) {
+            current.close();
+        }
+        Path path = Paths.get(dirPath, segmentName(nextNumber));
+        current = new MappedOutputStream<>(path.toString(), segmentSize, codec);
+        segments.put(nextNumber, path);
+    }
+
+    /**
+     * 新建基准序号为nextNumber的段并写入t，成功后关闭当前段、切换到新段，只编码一次
+     * 新段也放不下时关闭并删除新段，当前段不变
+     */
+    private void rollWith(T t) {
+        Path path = Paths.get(dirPath, segmentName(nextNumber));
+        MappedOutputStream<T> next = new MappedOutputStream<>(path.toString(), segmentSize, codec);
+        if (!next.tryWrite(t)) {
+            next.close();
+            try {
+                deleteSegment(path);
+            } catch (IOException e) {
+                throw new RuntimeException("删除段失败", e);
+            }
+            throw new IllegalArgumentException("record larger than segmentSize: " + segmentSize);
+        }
+        current.close();
+        current = next;
+        segments.put(nextNumber, path);
+    }
+
+    /**
+     * 删除段文件及其索引文件
+     */
+    private static void deleteSegment(Path path) throws IOException {
+        Files.deleteIfExists(path);
+        Files.deleteIfExists(Paths.get(path + AbstractMappedStream.INDEX_SUFFIX));
+    }
+
+    /**
+     * 段内记录数
+     */
+    private static long count(String filePath) {
+        try (MappedInputStream<Object> in = new MappedInputStream<>(filePath, SKIP)) {
+            return in.count();
+        }
+    }
+
+    /**
+     * 段文件名，按序号补零，字典序即序号顺序
+     */
+    static String segmentName(long baseNumber) {
+        return String.format("%020d%s", baseNumber, SEGMENT_SUFFIX);
+    }
+
+    /**
+     * 目录下的所有段，基准序号 -> 段文件
+     */
+    static NavigableMap<Long, Path> listSegments(String dirPath) {
+        NavigableMap<Long, Path> segments = new TreeMap<>();
+        File[] files = new File(dirPath).listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                segments.put(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())), file.toPath());
+            }
+        }
+        return segments;
+    }
+}